@@ -108,6 +108,12 @@ public class LoomGradleExtension {
 	 */
 	public String resourcesBaseUrl = "https://resources.download.minecraft.net/";
 	
+	/**
+	 * How many assets to download at the same time. They're small and there are thousands of them, so with any latency
+	 * to the server, downloading them one at a time spends most of its time waiting.
+	 */
+	public int assetDownloadThreads = 8;
+	
 	/**
 	 * Holder for run configurations (essentially a {@code Map<String, RunConfig>}).
 	 * 
@@ -178,6 +184,35 @@ public class LoomGradleExtension {
 	 */
 	public boolean refreshDependencies;
 	
+	/**
+	 * If 'true', the SRG remapping, (mapped) access transforming, and field/method renaming steps are done in one pass, without
+	 * writing the intermediate jars in between. The Minecraft jar that comes out of it is the same either way.
+	 * <p>
+	 * Pass {@code -Pvoldeloom.fused-debug} to Gradle to run both pipelines and compare their output.
+	 */
+	public boolean fusedTransforms = false;
+	
+	/**
+	 * If 'true', MCP names are applied by editing each class's constant pool, instead of parsing and rewriting the whole
+	 * class with ASM. Method bodies are copied through untouched, so it's a lot less work.
+	 * <p>
+	 * The classes aren't byte-for-byte the same as the ones the ASM renamer makes, so switching this causes a re-rename.
+	 */
+	public boolean constantPoolRenamer = false;
+	
+	/**
+	 * If 'true', {@code remapJarForRelease} remembers what it did last time, and only remaps the classes that changed since then
+	 * (and their subclasses). The state is kept in the project's {@code .gradle/voldeloom-cache/reobf} directory.
+	 */
+	public boolean incrementalReobf = false;
+	
+	/**
+	 * How {@code shimResources} puts Minecraft's assets into the run directories of client run configs, for versions that
+	 * don't support {@code --assetsDir}: {@code "copy"}, {@code "hardlink"}, or {@code "symlink"}. The links fall back
+	 * to copies where the filesystem doesn't support them. Either way, only files that changed since last time are touched.
+	 */
+	public String shimResourcesMode = "copy";
+	
 	/**
 	 * Callback with a bit more precision than "afterEvaluate". Evaluated before the internal ProviderGraph is evaluated
 	 * and before the project has been configured with all the Minecraft-related dependencies.
@@ -3,10 +3,12 @@ package net.fabricmc.loom;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
 
-import net.fabricmc.loom.mcp.McpMappings;
-import net.fabricmc.loom.mcp.Srg;
+import net.fabricmc.loom.mcp.JarScanData;
 import net.fabricmc.loom.newprovider.AccessTransformer;
 import net.fabricmc.loom.newprovider.AssetDownloader;
 import net.fabricmc.loom.newprovider.Binpatcher;
@@ -17,14 +19,17 @@ import net.fabricmc.loom.newprovider.Jarmodder;
 import net.fabricmc.loom.newprovider.MappingsWrapper;
 import net.fabricmc.loom.newprovider.Merger;
 import net.fabricmc.loom.newprovider.NaiveRenamer;
+import net.fabricmc.loom.newprovider.NewProvider;
+import net.fabricmc.loom.newprovider.ReobfMappings;
 import net.fabricmc.loom.newprovider.RemapperMcp;
 import net.fabricmc.loom.newprovider.ResolvedConfigElementWrapper;
 import net.fabricmc.loom.newprovider.VanillaDependencyFetcher;
 import net.fabricmc.loom.newprovider.VanillaJarFetcher;
 import net.fabricmc.loom.task.GenSourcesTask;
-import net.fabricmc.loom.util.Props;
+import net.fabricmc.loom.util.TaskGraph;
 import org.gradle.api.Project;
 import org.gradle.api.logging.Logger;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Manages the tangle of DependencyProviders.
@@ -54,178 +59,339 @@ public class ProviderGraph {
 	public final List<GenSourcesTask.SourceGenerationJob> sourceGenerationJobs = new ArrayList<>();
 	
 	//used by ReobfJarTask TODO: FIX, it's not 1.2.5 clean
-	public Srg reobfSrg;
+	public ReobfMappings reobfMappings;
 	
+	/**
+	 * Declares every provider step as a job in a {@link TaskGraph}, then runs it. Each provider is configured here, on
+	 * this thread, and says which jobs' results it reads with {@code input}; its job starts as soon as those are done, so
+	 * the order things are written in here doesn't decide the order they run in. Jobs that talk to Gradle (resolving
+	 * configurations, adding dependencies) are "configuring" jobs and run on this thread, everything else runs on the worker pool.
+	 */
 	public void setup() throws Exception {
 		log.lifecycle("# Wrapping basic dependencies...");
 		mcWrapper = new ConfigElementWrapper(project.getConfigurations().getByName(Constants.MINECRAFT));
-		
-		log.lifecycle("# Fetching vanilla jars and indexes...");
 		String mcPrefix = "minecraft-" + mcWrapper.getFilenameSafeVersion();
-		VanillaJarFetcher vanillaJars = new VanillaJarFetcher(project, extension)
+		
+		TaskGraph graph = new TaskGraph(log);
+		
+		VanillaJarFetcher vanillaJarFetcher = new VanillaJarFetcher(project, extension)
 			.mc(mcWrapper)
 			.customManifestUrl(extension.customManifestUrl)
 			.clientFilename(mcPrefix + "-client-{HASH}.jar")
-			.serverFilename(mcPrefix + "-server-{HASH}.jar")
-			.fetch();
+			.serverFilename(mcPrefix + "-server-{HASH}.jar");
+		TaskGraph.Node<VanillaJarFetcher> vanillaJars = graph.worker("fetch vanilla jars", vanillaJarFetcher, p -> {
+			log.lifecycle("# Fetching vanilla jars and indexes...");
+			return p.fetch();
+		});
 		
-		log.lifecycle("# Fetching vanilla dependencies...");
-		VanillaDependencyFetcher vanillaDeps = new VanillaDependencyFetcher(project, extension)
-			.superProps(vanillaJars)
-			.manifest(vanillaJars.getVersionManifest())
+		VanillaDependencyFetcher vanillaDependencyFetcher = new VanillaDependencyFetcher(project, extension)
+			.input(vanillaJars, (p, jars) -> p.superProps(jars).manifest(jars.getVersionManifest()))
 			.librariesBaseUrl(extension.librariesBaseUrl)
-			.nativesDirname(mcWrapper.getFilenameSafeVersion() + "-{HASH}-v2") //v2 to cachebust some version manifest changes in 2.5
-			.fetch()
-			.installDependenciesToProject(Constants.MINECRAFT_DEPENDENCIES, project.getDependencies());
-		mcNativesDir = vanillaDeps.getNativesDir();
+			.nativesDirname(mcWrapper.getFilenameSafeVersion() + "-{HASH}-v2"); //v2 to cachebust some version manifest changes in 2.5
+		TaskGraph.Node<VanillaDependencyFetcher> vanillaDeps = graph.worker("fetch vanilla dependencies", vanillaDependencyFetcher, p -> {
+			log.lifecycle("# Fetching vanilla dependencies...");
+			return p.fetch();
+		});
+		
+		graph.configuring("install vanilla dependencies", vanillaDependencyFetcher, p -> {
+			mcNativesDir = p.installDependenciesToProject(Constants.MINECRAFT_DEPENDENCIES, project.getDependencies()).getNativesDir();
+			return null;
+		});
 		
-		log.lifecycle("# Configuring asset downloader...");
 		assets = new AssetDownloader(project, extension)
-			.versionManifest(vanillaJars.getVersionManifest())
+			.input(vanillaJars, (p, jars) -> p.versionManifest(jars.getVersionManifest()))
 			.resourcesBaseUrl(extension.resourcesBaseUrl)
-			.prepare();
+			.downloadThreads(extension.assetDownloadThreads);
+		graph.worker("configure asset downloader", assets, p -> {
+			log.lifecycle("# Configuring asset downloader...");
+			return p.prepare();
+		});
 		
 		if(!project.getConfigurations().getByName(Constants.FORGE).isEmpty()) {
 			//unified jar (1.3+)
-			ResolvedConfigElementWrapper forge = new ResolvedConfigElementWrapper(project, project.getConfigurations().getByName(Constants.FORGE));
+			ConfigElementWrapper forgeVersion = new ConfigElementWrapper(project.getConfigurations().getByName(Constants.FORGE));
+			TaskGraph.Node<ResolvedConfigElementWrapper> forge = graph.configuring("resolve forge",
+				() -> new ResolvedConfigElementWrapper(project, project.getConfigurations().getByName(Constants.FORGE)));
 			
 			//first do binpatches (they're done on unmerged jars, and this passes through if forge doesn't use binpatches)
-			log.lifecycle("# Binpatching...");
 			Binpatcher binpatcher = new Binpatcher(project, extension)
-				.superProps(vanillaJars)
-				.client(vanillaJars.getClientJar())
-				.server(vanillaJars.getServerJar())
-				.forge(forge.getPath())
+				.input(vanillaJars, (p, jars) -> p.superProps(jars).client(jars.getClientJar()).server(jars.getServerJar()))
+				.input(forge, (p, f) -> p.forge(f.getPath()))
 				.binpatchedClientName(mcPrefix + "-client-binpatched-{HASH}.jar")
-				.binpatchedServerName(mcPrefix + "-server-binpatched-{HASH}.jar")
-				.binpatch();
+				.binpatchedServerName(mcPrefix + "-server-binpatched-{HASH}.jar");
+			TaskGraph.Node<Binpatcher> binpatched = graph.worker("binpatch", binpatcher, p -> {
+				log.lifecycle("# Binpatching...");
+				return p.binpatch();
+			});
 			
 			//then merge jars
-			log.lifecycle("# Joining client and server...");
 			Merger merger = new Merger(project, extension)
-				.superProps(binpatcher)
-				.client(binpatcher.getBinpatchedClient())
-				.server(binpatcher.getBinpatchedServer())
-				.mergedFilename(mcPrefix + "-merged-{HASH}.jar")
-				.merge();
+				.input(binpatched, (p, b) -> p.superProps(b).client(b.getBinpatchedClient()).server(b.getBinpatchedServer()))
+				.mergedFilename(mcPrefix + "-merged-{HASH}.jar");
+			TaskGraph.Node<Merger> merged = graph.worker("merge", merger, p -> {
+				log.lifecycle("# Joining client and server...");
+				return p.merge();
+			});
 			
 			//and the rest is the same
-			setupSide("joined", merger.getMergedJar(), merger.props, vanillaDeps, mcPrefix, forge);
+			declareSide(graph, "joined", merged, Merger::getMergedJar, vanillaDeps, mcPrefix, forgeVersion, forge, null);
 		} else {
 			//split jar (1.2.5-)
-			ResolvedConfigElementWrapper forgeClient = new ResolvedConfigElementWrapper(project, project.getConfigurations().getByName(Constants.FORGE_CLIENT));
-			ResolvedConfigElementWrapper forgeServer = new ResolvedConfigElementWrapper(project, project.getConfigurations().getByName(Constants.FORGE_SERVER));
-			setupSide("client", vanillaJars.getClientJar(), vanillaJars.props, vanillaDeps, mcPrefix + "-client", forgeClient);
-			setupSide("server", vanillaJars.getServerJar(), vanillaJars.props, vanillaDeps, mcPrefix + "-server", forgeServer);
+			//The two sides don't have anything to do with each other until it's time to add things to the project, so the
+			//client and server jars get jarmodded, remapped, etc at the same time. Adding things to the project is another story:
+			//both jars have classes with the same names, so the server's configuring jobs wait for the client's, and the
+			//classpath comes out in the same order every time.
+			ConfigElementWrapper forgeClientVersion = new ConfigElementWrapper(project.getConfigurations().getByName(Constants.FORGE_CLIENT));
+			ConfigElementWrapper forgeServerVersion = new ConfigElementWrapper(project.getConfigurations().getByName(Constants.FORGE_SERVER));
+			TaskGraph.Node<ResolvedConfigElementWrapper> forgeClient = graph.configuring("resolve forge client",
+				() -> new ResolvedConfigElementWrapper(project, project.getConfigurations().getByName(Constants.FORGE_CLIENT)));
+			TaskGraph.Node<ResolvedConfigElementWrapper> forgeServer = graph.configuring("resolve forge server",
+				() -> new ResolvedConfigElementWrapper(project, project.getConfigurations().getByName(Constants.FORGE_SERVER)));
+			
+			SideJobs client = declareSide(graph, "client", vanillaJars, VanillaJarFetcher::getClientJar, vanillaDeps, mcPrefix + "-client", forgeClientVersion, forgeClient, null);
+			declareSide(graph, "server", vanillaJars, VanillaJarFetcher::getServerJar, vanillaDeps, mcPrefix + "-server", forgeServerVersion, forgeServer, client);
 		}
 		
+		graph.run();
+		
 		log.lifecycle("# Thank you for flying Voldeloom.");
 	}
 	
-	private void setupSide(
+	/**
+	 * The jobs of one side that add things to the project, so the next side's can be ordered after them.
+	 */
+	private static class SideJobs {
+		SideJobs(TaskGraph.Node<?> installForgeDeps, TaskGraph.Node<?> remapMods, TaskGraph.Node<?> finish) {
+			this.installForgeDeps = installForgeDeps;
+			this.remapMods = remapMods;
+			this.finish = finish;
+		}
+		
+		final TaskGraph.Node<?> installForgeDeps, remapMods, finish;
+	}
+	
+	/**
+	 * @param previousSide the side whose configuring jobs this side's have to run after, if any
+	 */
+	private <P extends NewProvider<P>> SideJobs declareSide(
+		TaskGraph graph,
 		String side,
-		Path vanillaJar,
-		Props vanillaJarProps,
-		VanillaDependencyFetcher vanillaDeps,
+		TaskGraph.Node<P> vanillaJarProvider,
+		Function<P, Path> vanillaJarGetter,
+		TaskGraph.Node<VanillaDependencyFetcher> vanillaDeps,
 		String mcPrefix,
-		ResolvedConfigElementWrapper forgeWrapper
-	) throws Exception {
-		log.lifecycle("# ({}) Fetching Forge dependencies...", side);
-		new ForgeDependencyFetcher(project, extension)
-			.forgeJar(forgeWrapper.getPath())
+		ConfigElementWrapper forgeVersion,
+		TaskGraph.Node<ResolvedConfigElementWrapper> forgeWrapper,
+		@Nullable SideJobs previousSide
+	) {
+		//forgeCapabilities might be user-supplied lambdas, so read them here instead of on a worker thread
+		boolean bouncycastleCheat = extension.forgeCapabilities.bouncycastleCheat.get();
+		boolean mappedAccessTransformers = extension.forgeCapabilities.mappedAccessTransformers.get();
+		Set<String> classFilter = extension.forgeCapabilities.classFilter.get();
+		String distributionNamingScheme = extension.forgeCapabilities.distributionNamingScheme.get();
+		
+		String jarmoddedPrefix = mcPrefix + "-forge-" + forgeVersion.getFilenameSafeVersion();
+		
+		ForgeDependencyFetcher forgeDependencyFetcher = new ForgeDependencyFetcher(project, extension)
+			.input(forgeWrapper, (p, f) -> p.forgeJar(f.getPath()).libDownloaderDir(f.getFilenameSafeDepString()))
 			.fmlLibrariesBaseUrl(extension.fmlLibrariesBaseUrl)
-			.libDownloaderDir(forgeWrapper.getFilenameSafeDepString())
-			.bouncycastleCheat(extension.forgeCapabilities.bouncycastleCheat.get())
-			.sniff()
-			.fetch()
-			.installDependenciesToProject(Constants.FORGE_DEPENDENCIES, project.getDependencies());
+			.bouncycastleCheat(bouncycastleCheat);
+		graph.worker(side + ": fetch forge dependencies", forgeDependencyFetcher, p -> {
+			log.lifecycle("# ({}) Fetching Forge dependencies...", side);
+			return p.sniff().fetch();
+		});
+		TaskGraph.Node<ForgeDependencyFetcher> installForgeDeps = graph.configuring(side + ": install forge dependencies", forgeDependencyFetcher,
+			p -> p.installDependenciesToProject(Constants.FORGE_DEPENDENCIES, project.getDependencies()),
+			after(previousSide, s -> s.installForgeDeps));
 		
-		log.lifecycle("# ({}) Jarmodding...", side);
-		String jarmoddedPrefix = mcPrefix + "-forge-" + forgeWrapper.getFilenameSafeVersion();
-		Jarmodder jarmod = new Jarmodder(project, extension)
-			.superProps(vanillaJarProps)
-			.base(vanillaJar)
-			.overlay(forgeWrapper.getPath())
-			.jarmoddedFilename(jarmoddedPrefix + "-jarmod-{HASH}.jar")
-			.patch();
+		Jarmodder jarmodder = new Jarmodder(project, extension)
+			.input(vanillaJarProvider, (p, vanilla) -> p.superProps(vanilla).base(vanillaJarGetter.apply(vanilla)))
+			.input(forgeWrapper, (p, f) -> p.overlay(f.getPath()))
+			.jarmoddedFilename(jarmoddedPrefix + "-jarmod-{HASH}.jar");
+		TaskGraph.Node<Jarmodder> jarmod = graph.worker(side + ": jarmod", jarmodder, p -> {
+			log.lifecycle("# ({}) Jarmodding...", side);
+			return p.patch();
+		});
+		
+		TaskGraph.Node<MappingsWrapper> resolvedMappings = graph.configuring(side + ": resolve mappings",
+			() -> new MappingsWrapper(project, extension, project.getConfigurations().getByName(Constants.MAPPINGS)));
+		
+		TaskGraph.Node<MappingsWrapper> parsedMappings = graph.worker(side + ": parse mappings", () -> {
+			log.lifecycle("# ({}) Parsing mappings...", side);
+			return resolvedMappings.get().parse();
+		}, resolvedMappings);
 		
-		log.lifecycle("# ({}) Parsing mappings...", side);
 		//the jarscandata comes from the jarmodded jar, not the vanilla one, because some inner-class relations i need to know about are added by forge
-		MappingsWrapper mappingsWrapper = new MappingsWrapper(project, extension, project.getConfigurations().getByName(Constants.MAPPINGS), jarmod.getJarmoddedJar());
-		McpMappings mappings = mappingsWrapper.mappings;
+		//(null if the daemon already has mappings built against this jar)
+		TaskGraph.Node<JarScanData> scanData = graph.worker(side + ": scan jarmodded jar", () -> {
+			Path jarmodded = jarmod.get().getJarmoddedJar();
+			if(resolvedMappings.get().isCached(jarmodded)) return null;
+			
+			log.info("|-> Gleaning inner-class info from '{}'...", jarmodded);
+			return new JarScanData().scan(jarmodded);
+		}, resolvedMappings, jarmod);
+		
+		TaskGraph.Node<MappingsWrapper> mappingsWrapper = graph.worker(side + ": build mappings",
+			() -> parsedMappings.get().build(jarmod.get().getJarmoddedJar(), scanData.get()), parsedMappings, jarmod, scanData);
+		
+		TaskGraph.Node<NaiveRenamer> named = declareRemap(graph, side, jarmoddedPrefix, forgeWrapper, jarmod, mappingsWrapper, vanillaDeps, mappedAccessTransformers, classFilter);
+		
+		DependencyRemapperMcp dependencyRemapper = new DependencyRemapperMcp(project, extension)
+			.input(named, (p, naive) -> p.superProps(naive))
+			.input(mappingsWrapper, (p, m) -> p
+				.mappingsDepString(m.getFilenameSafeDepString())
+				.srg(m.mappings.chooseSrg(side))
+				.fields(m.mappings.fieldIndex)
+				.methods(m.mappings.methodIndex))
+			.constantPoolRenamer(extension.constantPoolRenamer)
+			.remappedConfigurationEntries(extension.remappedConfigurationEntries)
+			.distributionNamingScheme(distributionNamingScheme)
+			.input(jarmod, (p, j) -> p.addToRemapClasspath(j.getJarmoddedJar()))
+			.input(vanillaDeps, (p, deps) -> p.addToRemapClasspath(deps.getNonNativeLibraries_Todo()));
+		//TODO: does this belong inside the per-side stuff, or outside
+		// probably inside? but i need better delineation of client and server workspace mods...
+		TaskGraph.Node<DependencyRemapperMcp> remappedMods = graph.configuring(side + ": remap mod dependencies", dependencyRemapper, p -> {
+			log.lifecycle("# ({}) Remapping mod dependencies...", side);
+			return p.doIt(project.getDependencies());
+		}, after(previousSide, s -> s.remapMods));
+		
+		List<TaskGraph.Node<?>> finishDeps = new ArrayList<>(Arrays.asList(mappingsWrapper, vanillaDeps, named, remappedMods));
+		finishDeps.addAll(Arrays.asList(after(previousSide, s -> s.finish)));
+		TaskGraph.Node<Object> finish = graph.configuring(side + ": finish", () -> {
+			finishSide(side, mappingsWrapper.get(), vanillaDeps.get(), named.get());
+			return null;
+		}, finishDeps.toArray(new TaskGraph.Node<?>[0]));
+		
+		//TODO: oops all leaky abstraction again
+		if(side.equals("joined")) {
+			boolean reobfToSrg = distributionNamingScheme.equals(Constants.INTERMEDIATE_NAMING_SCHEME);
+			
+			//not built until ReobfJarTask asks for it
+			reobfMappings = new ReobfMappings(project, extension)
+				.input(mappingsWrapper, (p, m) -> p
+					.superProps(m.props)
+					.srg(m.mappings.chooseSrg(side))
+					.fields(m.mappings.fieldIndex)
+					.methods(m.mappings.methodIndex))
+				.reobfToSrg(reobfToSrg)
+				.input(jarmod, (p, j) -> p.scannedJar(j.getJarmoddedJar()))
+				.debugOutput(project.hasProperty("voldeloom.reobf-debug") ? project.getBuildDir().toPath().resolve("voldeloom-reobf-mappings-debug.srg") : null);
+			graph.worker(side + ": prepare reobf mappings", reobfMappings, p -> {
+				log.lifecycle("# ({}) Initializing reobf mappings ({} -> {})...", side, Constants.MAPPED_NAMING_SCHEME,
+					reobfToSrg ? Constants.INTERMEDIATE_NAMING_SCHEME : Constants.PROGUARDED_NAMING_SCHEME);
+				return p.prepare();
+			});
+		}
+		
+		return new SideJobs(installForgeDeps, remappedMods, finish);
+	}
+	
+	private static TaskGraph.Node<?>[] after(@Nullable SideJobs previousSide, Function<SideJobs, TaskGraph.Node<?>> job) {
+		return previousSide == null ? new TaskGraph.Node<?>[0] : new TaskGraph.Node<?>[] { job.apply(previousSide) };
+	}
+	
+	/**
+	 * Jarmodded jar to named jar: the SRG remapper, access transformer, and NaiveRenamer. Which order the first two go in
+	 * depends on the Forge version.
+	 */
+	private TaskGraph.Node<NaiveRenamer> declareRemap(
+		TaskGraph graph,
+		String side,
+		String jarmoddedPrefix,
+		TaskGraph.Node<ResolvedConfigElementWrapper> forgeWrapper,
+		TaskGraph.Node<Jarmodder> jarmod,
+		TaskGraph.Node<MappingsWrapper> mappingsWrapper,
+		TaskGraph.Node<VanillaDependencyFetcher> vanillaDeps,
+		boolean mappedAccessTransformers,
+		Set<String> classFilter
+	) {
+		//In fused mode, the SRG remapper (and the access transformer, for mapped ATs) is only configured, and NaiveRenamer
+		//does its job in the same pass as renaming. The providers' props are the same either way, so the named jar is too.
+		//With voldeloom.fused-debug, the staged pipeline runs as normal and the fused one is checked against it.
+		boolean fused = extension.fusedTransforms;
+		boolean staged = !fused || project.hasProperty("voldeloom.fused-debug");
 		
-		log.lifecycle("# ({}) Preparing ATs...", side);
 		AccessTransformer transformer = new AccessTransformer(project, extension)
-			.regularForgeJar(forgeWrapper.getPath())
-			.loadCustomAccessTransformers();
+			.input(forgeWrapper, (p, f) -> p.regularForgeJar(f.getPath()));
+		graph.configuring(side + ": load custom ATs", transformer, p -> {
+			log.lifecycle("# ({}) Preparing ATs...", side);
+			return p.loadCustomAccessTransformers();
+		});
 		
-		log.lifecycle("# ({}) Preparing SRG remapper...", side);
 		RemapperMcp remapperMcp = new RemapperMcp(project, extension)
-			.superProps(mappingsWrapper.props)
-			.srg(mappings.chooseSrg(side))
-			.addToRemapClasspath(vanillaDeps.getNonNativeLibraries_Todo())
-			.deletedPrefixes(extension.forgeCapabilities.classFilter.get());
+			.input(mappingsWrapper, (p, m) -> p.superProps(m.props).srg(m.mappings.chooseSrg(side)))
+			.input(vanillaDeps, (p, deps) -> p.addToRemapClasspath(deps.getNonNativeLibraries_Todo()))
+			.deletedPrefixes(classFilter);
 		
-		Path srgAtdJar;
-		if(extension.forgeCapabilities.mappedAccessTransformers.get()) { //1.7 and above
-			log.lifecycle("# ({}) Remapping to SRG with tiny-remapper...", side);
-			remapperMcp = remapperMcp
-				.superProps(jarmod)
-				.inputJar(jarmod.getJarmoddedJar())
-				.outputSrgJar(mappingsWrapper.getFilenameSafeDepString(), jarmoddedPrefix + "-srg-{HASH}.jar")
-				.remap();
+		TaskGraph.Node<RemapperMcp> srg;
+		TaskGraph.Node<AccessTransformer> atd;
+		if(mappedAccessTransformers) { //1.7 and above
+			remapperMcp
+				.input(jarmod, (p, j) -> p.superProps(j).inputJar(j.getJarmoddedJar()))
+				.input(mappingsWrapper, (p, m) -> p.outputSrgJar(m.getFilenameSafeDepString(), jarmoddedPrefix + "-srg-{HASH}.jar"));
+			srg = graph.worker(side + ": remap to SRG", remapperMcp, p -> {
+				if(!staged) return p;
+				log.lifecycle("# ({}) Remapping to SRG with tiny-remapper...", side);
+				return p.remap();
+			});
 			
-			log.lifecycle("# ({}) Applying (mapped) access transformers...", side);
-			transformer = transformer
-				.superProps(remapperMcp)
+			transformer
+				.input(srg, (p, r) -> {
+					p.superProps(r);
+					if(staged) p.inputJar(r.getOutputSrgJar());
+				})
 				.mappedAccessTransformers(true)
-				.inputJar(remapperMcp.getOutputSrgJar())
-				.transformedFilename(jarmoddedPrefix + "-srg-atd-{HASH}.jar")
-				.transform();
-			
-			srgAtdJar = transformer.getTransformedJar();
+				.transformedFilename(jarmoddedPrefix + "-srg-atd-{HASH}.jar");
+			atd = graph.worker(side + ": apply access transformers", transformer, p -> {
+				if(!staged) return p;
+				log.lifecycle("# ({}) Applying (mapped) access transformers...", side);
+				return p.transform();
+			});
 		} else { //1.6 and below
-			log.lifecycle("# ({}) Applying (unmapped) access transformers...", side);
-			transformer = transformer
-				.superProps(jarmod)
-				.inputJar(jarmod.getJarmoddedJar())
-				.transformedFilename(jarmoddedPrefix + "-atd-{HASH}.jar")
-				.transform();
-			
-			log.lifecycle("# ({}) Remapping to SRG with tiny-remapper...", side);
-			remapperMcp = remapperMcp
-				.superProps(transformer)
-				.inputJar(transformer.getTransformedJar())
-				.outputSrgJar(mappingsWrapper.getFilenameSafeDepString(), jarmoddedPrefix + "-atd-srg-{HASH}.jar")
-				.remap();
+			transformer
+				.input(jarmod, (p, j) -> p.superProps(j).inputJar(j.getJarmoddedJar()))
+				.transformedFilename(jarmoddedPrefix + "-atd-{HASH}.jar");
+			atd = graph.worker(side + ": apply access transformers", transformer, p -> {
+				log.lifecycle("# ({}) Applying (unmapped) access transformers...", side);
+				return p.transform();
+			});
 			
-			srgAtdJar = remapperMcp.getOutputSrgJar();
+			remapperMcp
+				.input(atd, (p, t) -> p.superProps(t).inputJar(t.getTransformedJar()))
+				.input(mappingsWrapper, (p, m) -> p.outputSrgJar(m.getFilenameSafeDepString(), jarmoddedPrefix + "-atd-srg-{HASH}.jar"));
+			srg = graph.worker(side + ": remap to SRG", remapperMcp, p -> {
+				if(!staged) return p;
+				log.lifecycle("# ({}) Remapping to SRG with tiny-remapper...", side);
+				return p.remap();
+			});
 		}
 		
-		log.lifecycle("# ({}) Applying field and method names with NaiveRenamer...", side);
 		NaiveRenamer naive = new NaiveRenamer(project, extension)
-			.superProps(transformer, remapperMcp)
-			.input(srgAtdJar)
-			.outputFilename(mappingsWrapper.getFilenameSafeDepString(), jarmoddedPrefix + "-named-{HASH}.jar")
-			.fields(mappings.fields)
-			.methods(mappings.methods)
-			.rename();
-		
-		//TODO: does this belong inside the per-side stuff, or outside
-		// probably inside? but i need better delineation of client and server workspace mods...
-		log.lifecycle("# ({}) Remapping mod dependencies...", side);
-		new DependencyRemapperMcp(project, extension)
-			.superProps(naive)
-			.mappingsDepString(mappingsWrapper.getFilenameSafeDepString())
-			.srg(mappings.chooseSrg(side))
-			.fields(mappings.fields)
-			.methods(mappings.methods)
-			.remappedConfigurationEntries(extension.remappedConfigurationEntries)
-			.distributionNamingScheme(extension.forgeCapabilities.distributionNamingScheme.get())
-			.addToRemapClasspath(jarmod.getJarmoddedJar())
-			.addToRemapClasspath(vanillaDeps.getNonNativeLibraries_Todo())
-			.doIt(project.getDependencies());
+			.input(atd, (p, t) -> p.superProps(t))
+			.input(srg, (p, r) -> p.superProps(r))
+			.input(mappingsWrapper, (p, m) -> p
+				.outputFilename(m.getFilenameSafeDepString(), jarmoddedPrefix + "-named-{HASH}.jar")
+				.fields(m.mappings.fieldIndex)
+				.methods(m.mappings.methodIndex))
+			.constantPoolRenamer(extension.constantPoolRenamer);
+		if(staged) {
+			if(mappedAccessTransformers) naive.input(atd, (p, t) -> p.input(t.getTransformedJar()));
+			else naive.input(srg, (p, r) -> p.input(r.getOutputSrgJar()));
+		}
+		if(fused) naive.fuse(remapperMcp, mappedAccessTransformers ? transformer : null);
 		
+		return graph.worker(side + ": remap", naive, p -> {
+			log.lifecycle("# ({}) Applying field and method names with NaiveRenamer{}...", side, fused ? " (fused with the SRG remapper)" : "");
+			return p.rename();
+		});
+	}
+	
+	private void finishSide(
+		String side,
+		MappingsWrapper mappingsWrapper,
+		VanillaDependencyFetcher vanillaDeps,
+		NaiveRenamer naive
+	) {
 		log.lifecycle("# ({}) Initializing source generation job...", side);
 		GenSourcesTask.SourceGenerationJob job = new GenSourcesTask.SourceGenerationJob();
 		job.mappedJar = naive.getOutput();
@@ -247,24 +413,6 @@ public class ProviderGraph {
 		else ideallyLinemappedJar = naive.getOutput();
 		
 		project.getDependencies().add(Constants.MINECRAFT_NAMED, project.files(ideallyLinemappedJar));
-		
-		//TODO: oops all leaky abstraction again
-		if(side.equals("joined")) {
-			boolean reobfToSrg = extension.forgeCapabilities.distributionNamingScheme.get().equals(Constants.INTERMEDIATE_NAMING_SCHEME);
-			
-			log.lifecycle("# ({}) Initializing reobf mappings ({} -> {})...", side, Constants.MAPPED_NAMING_SCHEME,
-				reobfToSrg ? Constants.INTERMEDIATE_NAMING_SCHEME : Constants.PROGUARDED_NAMING_SCHEME);
-			
-			reobfSrg = mappings.chooseSrg(side).reobf(mappings.fields, mappings.methods, reobfToSrg);
-			
-			if(project.hasProperty("voldeloom.reobf-debug")) {
-				Path dbgOut = project.getBuildDir().toPath().resolve("voldeloom-reobf-mappings-debug.srg");
-				Files.deleteIfExists(dbgOut);
-				
-				log.lifecycle("!! Writing debug reobf mappings to {}", dbgOut);
-				reobfSrg.writeTo(dbgOut);
-			}
-		}
 	}
 	
 	public void trySetup() {
@@ -44,6 +44,28 @@ public class WellKnownLocations {
 		return mkdirs(getUserCache(project).resolve("layered-mappings"));
 	}
 	
+	/**
+	 * Binary copies of parsed MCP mappings zips, named after the hash of the zip's contents.
+	 * Mappings zips from Maven live in Gradle's own cache, so the binary copies can't go next to them.
+	 */
+	public static Path getMappingsBinaryCache(Project project) {
+		return mkdirs(getUserCache(project).resolve("mappings-bin"));
+	}
+	
+	/**
+	 * State kept between runs of {@code ReobfJarTask} in incremental mode. Specific to the mod being built, so it's project-local.
+	 */
+	public static Path getReobfCache(Project project) {
+		return mkdirs(getProjectCache(project).resolve("reobf"));
+	}
+	
+	/**
+	 * Manifests of what {@code ShimResourcesTask} put in each run directory, so it only has to touch what changed.
+	 */
+	public static Path getShimResourcesCache(Project project) {
+		return mkdirs(getProjectCache(project).resolve("shim-resources"));
+	}
+	
 	//Added as a flatDir maven repo in LoomGradlePlugin.
 	public static Path getRemappedModCache(Project project) {
 		return mkdirs(getProjectCache(project).resolve("remapped-mods"));
@@ -1,16 +1,24 @@
 package net.fabricmc.loom.mcp;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -23,7 +31,10 @@ public class Binpatch {
 
 	public String sourceClassName;
 	public boolean existsAtTarget; //<- if `false`, the patch expects to be applied to a zero-byte input and creates a brand new file at sourceClassName
-	public byte[] patchBytes;
+	
+	//Either patchBytes is set, or the patch is a slice of a memory-mapped patch cache and it gets copied out when it's needed.
+	private byte[] patchBytes;
+	private ByteBuffer patchSource;
 	
 	//see ClassPatchManager#readPatch. It's the same among 1.6.4 and 1.7.10.
 	public Binpatch read(String originalFilename, InputStream in) throws IOException {
@@ -44,8 +55,17 @@ public class Binpatch {
 		return this;
 	}
 
+	public byte[] getPatchBytes() {
+		if(patchBytes == null) {
+			byte[] bytes = new byte[patchSource.remaining()];
+			patchSource.duplicate().get(bytes); //duplicate, so concurrent readers don't trample each other's position
+			patchBytes = bytes;
+		}
+		return patchBytes;
+	}
+
 	public byte[] apply(byte[] originalBytes) {
-		return Gdiff.apply(originalBytes, patchBytes);
+		return Gdiff.apply(originalBytes, getPatchBytes());
 	}
 
 	public static class Patchset {
@@ -77,6 +97,14 @@ public class Binpatch {
 		public List<Binpatch> getAdditions() {
 			return additions;
 		}
+
+		//All binpatches, in a stable order (patches for the same class stay in the order they get applied)
+		private List<Binpatch> all() {
+			List<Binpatch> all = new ArrayList<>(modificationCount + additions.size());
+			new TreeMap<>(modifications).values().forEach(all::addAll);
+			all.addAll(additions);
+			return all;
+		}
 	}
 
 	public static class Pack {
@@ -116,5 +144,124 @@ public class Binpatch {
 
 			return this;
 		}
+
+		/// Decoded patch cache ///
+		//Decoding the LZMA and pack200 layers is by far the slowest part of reading binpatches, so the decoded patches
+		//get saved to a simple binary file, which can be memory-mapped later. The format is:
+		// - int magic, int version, int patch count
+		// - for each patch: byte side (0 = client, 1 = server), boolean existsAtTarget, short-prefixed UTF-8 originalFilename
+		//   and sourceClassName, int offset of the patch bytes (relative to the start of the data section), int length
+		// - the data section, all the patch bytes back-to-back
+		//Only the index is parsed when the cache is loaded; patch bytes are read out of the mapped file when they're applied.
+		//A file that can't be read (wrong magic or version, truncated) is an IOException, and the caller decodes the
+		//binpatches again instead.
+
+		private static final int CACHE_MAGIC = 0x56425043; //"VBPC"
+		//Also goes in the cache file name, so changing the format doesn't trip over old caches
+		public static final int CACHE_VERSION = 1;
+
+		public void writeCache(Path dest) throws IOException {
+			List<Binpatch> clientPatches = client.all(), serverPatches = server.all();
+
+			Path parent = dest.toAbsolutePath().getParent();
+			Files.createDirectories(parent);
+			Path tmp = Files.createTempFile(parent, dest.getFileName().toString(), ".tmp");
+			try {
+				try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+					out.writeInt(CACHE_MAGIC);
+					out.writeInt(CACHE_VERSION);
+					out.writeInt(clientPatches.size() + serverPatches.size());
+
+					int offset = 0;
+					offset = writeIndex(out, 0, clientPatches, offset);
+					writeIndex(out, 1, serverPatches, offset);
+
+					for(Binpatch patch : clientPatches) out.write(patch.getPatchBytes());
+					for(Binpatch patch : serverPatches) out.write(patch.getPatchBytes());
+				}
+
+				//move it into place at the end, so a half-written cache never gets loaded
+				Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+		}
+
+		private static int writeIndex(DataOutputStream out, int side, List<Binpatch> patches, int offset) throws IOException {
+			for(Binpatch patch : patches) {
+				out.writeByte(side);
+				out.writeBoolean(patch.existsAtTarget);
+				writeString(out, patch.originalFilename);
+				writeString(out, patch.sourceClassName);
+				out.writeInt(offset);
+				out.writeInt(patch.getPatchBytes().length);
+				offset += patch.getPatchBytes().length;
+			}
+			return offset;
+		}
+
+		private static void writeString(DataOutputStream out, String s) throws IOException {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			out.writeShort(bytes.length);
+			out.write(bytes);
+		}
+
+		public Pack readCache(Path cache) throws IOException {
+			try(FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+				//the mapping stays valid after the channel is closed
+				ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+				int magic = buf.getInt();
+				if(magic != CACHE_MAGIC) throw new IOException("Invalid magic: " + Integer.toHexString(magic));
+				int version = buf.getInt();
+				if(version != CACHE_VERSION) throw new IOException("Unknown version: " + version);
+
+				int count = buf.getInt();
+				if(count < 0 || count > buf.remaining() / 14) throw new IOException("Invalid patch count: " + count); //an index entry is at least 14 bytes
+				List<Binpatch> patches = new ArrayList<>(count);
+				List<Patchset> targets = new ArrayList<>(count);
+				int[] offsets = new int[count], lengths = new int[count];
+				for(int i = 0; i < count; i++) {
+					targets.add(buf.get() == 0 ? client : server);
+
+					Binpatch patch = new Binpatch();
+					patch.existsAtTarget = buf.get() != 0;
+					patch.originalFilename = readString(buf);
+					patch.sourceClassName = readString(buf);
+					patches.add(patch);
+
+					offsets[i] = buf.getInt();
+					lengths[i] = buf.getInt();
+				}
+
+				int dataStart = buf.position();
+				for(int i = 0; i < count; i++) {
+					if(offsets[i] < 0 || lengths[i] < 0 || (long) dataStart + offsets[i] + lengths[i] > buf.limit()) {
+						throw new IOException("Patch " + i + " runs past the end of the file; is it truncated?");
+					}
+				}
+
+				for(int i = 0; i < count; i++) {
+					ByteBuffer slice = buf.duplicate();
+					slice.position(dataStart + offsets[i]);
+					slice.limit(dataStart + offsets[i] + lengths[i]);
+
+					Binpatch patch = patches.get(i);
+					patch.patchSource = slice.slice();
+					targets.get(i).add(patch);
+				}
+			} catch (RuntimeException e) {
+				//BufferUnderflowException and friends, from a truncated index
+				throw new IOException("Failed to read binpatch cache " + cache + ": " + e, e);
+			}
+
+			return this;
+		}
+
+		private static String readString(ByteBuffer buf) {
+			byte[] bytes = new byte[buf.getShort() & 0xFFFF];
+			buf.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
 	}
 }
@@ -0,0 +1,230 @@
+package net.fabricmc.loom.mcp;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Does the same job as {@link NaiveAsmSrgRenamer}, but by editing the class file's constant pool instead of parsing and
+ * re-emitting the whole class. Method bodies, attributes, and stack map frames are copied through byte-for-byte.
+ * <p>
+ * Existing pool entries never move, so nothing that refers to them by index needs to change. Renamed names get new UTF8
+ * entries (and field/method refs that need a new name get new NameAndType entries) appended to the end of the pool,
+ * and only the references that should see the new name are pointed at them:
+ * <ul>
+ *   <li>the names of declared fields and methods,</li>
+ *   <li>the NameAndTypes of field and method refs,</li>
+ *   <li>and the UTF8s of string constants, which go through {@link NaiveTextualSrgRenamer}.</li>
+ * </ul>
+ * The old entries stay in the pool, in case anything else (like a local variable name or an annotation) refers to them.
+ * <p>
+ * A couple of things come out differently than with the ASM renamer: method handles point at the same method refs that
+ * instructions do, so they get renamed too, and so do string constants that aren't loaded by an {@code ldc} (like the
+ * {@code ConstantValue} of a {@code static final String}). And since unused pool entries aren't dropped, the class
+ * files are a little bigger.
+ * <p>
+ * Not thread-safe; make one per class, or per thread.
+ */
+public class ConstantPoolSrgRenamer {
+	public ConstantPoolSrgRenamer(MemberLookup fields, MemberLookup methods) {
+		this.fields = fields;
+		this.methods = methods;
+		this.textualRenamer = new NaiveTextualSrgRenamer(fields, methods);
+		this.onlySrgShapedNames = fields.onlySrgShapedNames() && methods.onlySrgShapedNames();
+	}
+	
+	private final MemberLookup fields, methods;
+	private final NaiveTextualSrgRenamer textualRenamer;
+	private final boolean onlySrgShapedNames; //if so, names without "func_" or "field_" in them can be skipped without decoding them
+	
+	private static final int UTF8 = 1, INTEGER = 3, FLOAT = 4, LONG = 5, DOUBLE = 6, CLASS = 7, STRING = 8,
+		FIELDREF = 9, METHODREF = 10, INTERFACE_METHODREF = 11, NAME_AND_TYPE = 12, METHOD_HANDLE = 15, METHOD_TYPE = 16,
+		DYNAMIC = 17, INVOKE_DYNAMIC = 18, MODULE = 19, PACKAGE = 20;
+	
+	/**
+	 * @return the renamed class, {@code classBytes} itself if nothing needed renaming, or {@code null} if this class can't
+	 * be handled by editing the constant pool (so use the ASM renamer instead)
+	 */
+	public @Nullable byte[] rename(byte[] classBytes) {
+		try {
+			return new Edit(classBytes).run();
+		} catch (IOException | RuntimeException e) {
+			return null;
+		}
+	}
+	
+	private class Edit {
+		Edit(byte[] in) {
+			this.in = in;
+		}
+		
+		final byte[] in;
+		byte[] out; //copy of `in` with patched indices, created on the first patch
+		int[] offsets;
+		int poolEnd;
+		
+		final ByteArrayOutputStream appendedBytes = new ByteArrayOutputStream();
+		final DataOutputStream appended = new DataOutputStream(appendedBytes);
+		int nextIndex;
+		final Map<String, Integer> appendedUtf8s = new HashMap<>();
+		final Map<Long, Integer> appendedNameAndTypes = new HashMap<>();
+		
+		@Nullable byte[] run() throws IOException {
+			if(u4(0) != 0xCAFEBABE) return null;
+			
+			//find the pool entries
+			int count = u2(8);
+			offsets = new int[count];
+			int pos = 10;
+			for(int i = 1; i < count; i++) {
+				offsets[i] = pos;
+				switch(in[pos]) {
+					case UTF8: pos += 3 + u2(pos + 1); break;
+					case INTEGER: case FLOAT: pos += 5; break;
+					case LONG: case DOUBLE: pos += 9; i++; break; //takes two slots
+					case CLASS: case STRING: case METHOD_TYPE: case MODULE: case PACKAGE: pos += 3; break;
+					case FIELDREF: case METHODREF: case INTERFACE_METHODREF: case NAME_AND_TYPE: case DYNAMIC: case INVOKE_DYNAMIC: pos += 5; break;
+					case METHOD_HANDLE: pos += 4; break;
+					default: return null; //don't know how long it is
+				}
+			}
+			poolEnd = pos;
+			nextIndex = count;
+			
+			//field and method refs, and string constants
+			for(int i = 1; i < count; i++) {
+				int off = offsets[i];
+				switch(in[off]) {
+					case FIELDREF: case METHODREF: case INTERFACE_METHODREF: {
+						int nat = u2(off + 3);
+						int natOff = offsets[nat];
+						int nameIndex = u2(natOff + 1);
+						String newName = remappedName(in[off] == FIELDREF ? fields : methods, nameIndex);
+						if(newName != null) patch(off + 3, nameAndType(utf8(newName), u2(natOff + 3)));
+						break;
+					}
+					case STRING: {
+						int utf8Index = u2(off + 1);
+						if(!mightContainSrgName(utf8Index)) break;
+						String value = readUtf8(utf8Index);
+						String renamed = textualRenamer.rename(value);
+						if(!renamed.equals(value)) patch(off + 1, utf8(renamed));
+						break;
+					}
+					case LONG: case DOUBLE: i++; break;
+				}
+			}
+			
+			//declared fields and methods
+			pos = poolEnd + 6; //access flags, this class, superclass
+			pos += 2 + 2 * u2(pos); //interfaces
+			pos = renameMembers(pos, fields);
+			renameMembers(pos, methods);
+			
+			if(out == null) return in;
+			if(nextIndex > 0xFFFF) return null; //pool's full
+			
+			appended.flush();
+			ByteArrayOutputStream result = new ByteArrayOutputStream(in.length + appendedBytes.size());
+			result.write(out, 0, 8);
+			result.write(nextIndex >>> 8);
+			result.write(nextIndex);
+			result.write(out, 10, poolEnd - 10);
+			appendedBytes.writeTo(result);
+			result.write(out, poolEnd, out.length - poolEnd);
+			return result.toByteArray();
+		}
+		
+		/**
+		 * Renames the field_info or method_info structures starting at {@code pos}.
+		 * @return the position after them
+		 */
+		int renameMembers(int pos, MemberLookup members) throws IOException {
+			int count = u2(pos);
+			pos += 2;
+			for(int i = 0; i < count; i++) {
+				//access flags, name, descriptor, attributes
+				String newName = remappedName(members, u2(pos + 2));
+				if(newName != null) patch(pos + 2, utf8(newName));
+				
+				int attributeCount = u2(pos + 6);
+				pos += 8;
+				for(int j = 0; j < attributeCount; j++) pos += 6 + u4(pos + 2);
+			}
+			return pos;
+		}
+		
+		@Nullable String remappedName(MemberLookup members, int utf8Index) throws IOException {
+			if(onlySrgShapedNames && !mightContainSrgName(utf8Index)) return null;
+			
+			String name = readUtf8(utf8Index);
+			Members.Entry entry = members.remapSrg(name);
+			return entry == null || entry.remappedName.equals(name) ? null : entry.remappedName;
+		}
+		
+		/**
+		 * Checks for "func_" or "field_" in the raw bytes. Modified UTF-8 stores ASCII as-is, and the bytes of other
+		 * characters are all >= 0x80, so this never misses one.
+		 */
+		boolean mightContainSrgName(int utf8Index) {
+			int start = offsets[utf8Index] + 3;
+			int end = start + u2(start - 2);
+			for(int i = start; i < end - 4; i++) {
+				if(in[i] != 'f') continue;
+				if(in[i + 1] == 'u' && in[i + 2] == 'n' && in[i + 3] == 'c' && in[i + 4] == '_') return true;
+				if(i < end - 5 && in[i + 1] == 'i' && in[i + 2] == 'e' && in[i + 3] == 'l' && in[i + 4] == 'd' && in[i + 5] == '_') return true;
+			}
+			return false;
+		}
+		
+		String readUtf8(int utf8Index) throws IOException {
+			int off = offsets[utf8Index];
+			if(in[off] != UTF8) throw new IllegalStateException("not a UTF8 entry: " + utf8Index);
+			return new DataInputStream(new ByteArrayInputStream(in, off + 1, in.length - off - 1)).readUTF();
+		}
+		
+		int utf8(String s) throws IOException {
+			Integer index = appendedUtf8s.get(s);
+			if(index == null) {
+				index = nextIndex++;
+				appended.writeByte(UTF8);
+				appended.writeUTF(s); //this is modified UTF-8, with the length in front; same as the class file format
+				appendedUtf8s.put(s, index);
+			}
+			return index;
+		}
+		
+		int nameAndType(int nameIndex, int descriptorIndex) throws IOException {
+			long key = ((long) nameIndex << 32) | descriptorIndex;
+			Integer index = appendedNameAndTypes.get(key);
+			if(index == null) {
+				index = nextIndex++;
+				appended.writeByte(NAME_AND_TYPE);
+				appended.writeShort(nameIndex);
+				appended.writeShort(descriptorIndex);
+				appendedNameAndTypes.put(key, index);
+			}
+			return index;
+		}
+		
+		void patch(int pos, int index) {
+			if(out == null) out = in.clone();
+			out[pos] = (byte) (index >>> 8);
+			out[pos + 1] = (byte) index;
+		}
+		
+		int u2(int pos) {
+			return ((in[pos] & 0xFF) << 8) | (in[pos + 1] & 0xFF);
+		}
+		
+		int u4(int pos) {
+			return ((in[pos] & 0xFF) << 24) | ((in[pos + 1] & 0xFF) << 16) | ((in[pos + 2] & 0xFF) << 8) | (in[pos + 3] & 0xFF);
+		}
+	}
+}
@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -39,13 +40,13 @@ public class ForgeAccessTransformerSet {
 	
 	private final Set<String> touchedClasses = new HashSet<>(); //for optimization
 	
-	//and for debugging:
+	//and for debugging. (synchronized because the fused pipeline transforms classes on several threads at once)
 	private int count = 0;
-	private final Set<String> usedClassTransformers = new HashSet<>();
-	private final Set<String> usedWildcardFieldTransformers = new HashSet<>();
-	private final Set<String> usedFieldTransformers = new HashSet<>();
-	private final Set<String> usedWildcardMethodTransformers = new HashSet<>();
-	private final Set<String> usedMethodTransformers = new HashSet<>();
+	private final Set<String> usedClassTransformers = Collections.synchronizedSet(new HashSet<>());
+	private final Set<String> usedWildcardFieldTransformers = Collections.synchronizedSet(new HashSet<>());
+	private final Set<String> usedFieldTransformers = Collections.synchronizedSet(new HashSet<>());
+	private final Set<String> usedWildcardMethodTransformers = Collections.synchronizedSet(new HashSet<>());
+	private final Set<String> usedMethodTransformers = Collections.synchronizedSet(new HashSet<>());
 	
 	public @Nonnull AccessTransformation getClassTransformation(String className) {
 		AccessTransformation classTransformation = classTransformers.get(className);
@@ -0,0 +1,138 @@
+package net.fabricmc.loom.mcp;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * A read-only map of SRG names to {@link Members.Entry}s, that reads them out of a memory-mapped {@link McpMappingsBinary}
+ * file instead of keeping them all on the heap. Entries are only created when they're looked up. Trying to modify it throws.
+ * <p>
+ * Lookups go through the same kind of {@link SrgIdTable} as {@link MembersIndex}, which is built when the file is
+ * loaded out of the ids stored in the file, without decoding any names. It's its own {@link MemberLookup}.
+ */
+public class MappedMemberMap extends AbstractMap<String, Members.Entry> implements MemberLookup {
+	MappedMemberMap(ByteBuffer buf, int recordsPos, int count, McpMappingsBinary.StringTable strings) {
+		this.buf = buf;
+		this.recordsPos = recordsPos;
+		this.count = count;
+		this.strings = strings;
+		this.entries = new Members.Entry[count];
+		
+		//same indexing as MembersIndex, but the ids were already parsed when the file was written
+		this.table = new SrgIdTable(count);
+		Map<String, Integer> irregular = new HashMap<>();
+		for(int i = 0; i < count; i++) {
+			int srgId = field(i, 0);
+			if(srgId == -1) irregular.put(strings.get(field(i, 1)), i);
+			else table.put(srgId, i);
+		}
+		this.irregular = irregular;
+	}
+	
+	private final ByteBuffer buf;
+	private final int recordsPos;
+	private final int count;
+	private final McpMappingsBinary.StringTable strings;
+	private final SrgIdTable table;
+	private final Map<String, Integer> irregular;
+	
+	//entries are immutable, so racing to create the same one is harmless
+	private final Members.Entry[] entries;
+	
+	@Override
+	public @Nullable Members.Entry remapSrg(String srg) {
+		int id = SrgIdTable.parseId(srg);
+		if(id == -1) {
+			if(irregular.isEmpty()) return null;
+			Integer record = irregular.get(srg);
+			return record == null ? null : entry(record);
+		}
+		
+		for(int slot = table.start(id); table.occupied(slot); slot = table.next(slot)) {
+			if(table.id(slot) == id) {
+				int record = table.record(slot);
+				if(strings.equalsAt(field(record, 1), srg)) return entry(record);
+			}
+		}
+		
+		return null;
+	}
+	
+	@Override
+	public boolean onlySrgShapedNames() {
+		return irregular.isEmpty();
+	}
+	
+	@Override
+	public @Nullable Members.Entry get(Object key) {
+		return key instanceof String ? remapSrg((String) key) : null;
+	}
+	
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+	
+	@Override
+	public int size() {
+		return count;
+	}
+	
+	@Override
+	public void forEach(BiConsumer<? super String, ? super Members.Entry> action) {
+		for(int i = 0; i < count; i++) action.accept(strings.get(field(i, 1)), entry(i));
+	}
+	
+	@Override
+	public Set<Map.Entry<String, Members.Entry>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Members.Entry>>() {
+			@Override
+			public Iterator<Map.Entry<String, Members.Entry>> iterator() {
+				return new Iterator<Map.Entry<String, Members.Entry>>() {
+					int i = 0;
+					
+					@Override
+					public boolean hasNext() {
+						return i < count;
+					}
+					
+					@Override
+					public Map.Entry<String, Members.Entry> next() {
+						if(i >= count) throw new NoSuchElementException();
+						Map.Entry<String, Members.Entry> e = new SimpleImmutableEntry<>(strings.get(field(i, 1)), entry(i));
+						i++;
+						return e;
+					}
+				};
+			}
+			
+			@Override
+			public int size() {
+				return count;
+			}
+		};
+	}
+	
+	private Members.Entry entry(int i) {
+		Members.Entry entry = entries[i];
+		if(entry == null) {
+			int comment = field(i, 4);
+			entry = new Members.Entry(strings.get(field(i, 2)), field(i, 3), comment == -1 ? null : strings.get(comment), true);
+			entries[i] = entry;
+		}
+		return entry;
+	}
+	
+	private int field(int record, int field) {
+		return buf.getInt(recordsPos + record * McpMappingsBinary.MEMBER_RECORD_SIZE + field * 4);
+	}
+}
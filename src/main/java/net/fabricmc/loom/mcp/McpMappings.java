@@ -19,6 +19,10 @@ public class McpMappings {
 		this.server = server;
 		this.fields = fields;
 		this.methods = methods;
+		
+		//these get looked up a lot, and built mappings aren't modified anymore
+		this.fieldIndex = fields.index();
+		this.methodIndex = methods.index();
 	}
 	
 	public final Srg joined;
@@ -27,6 +31,11 @@ public class McpMappings {
 	public final Members fields;
 	public final Members methods;
 	
+	/**
+	 * What the renamers should look names up in. Same contents as {@code fields} and {@code methods}, but faster.
+	 */
+	public final MemberLookup fieldIndex, methodIndex;
+	
 	//in 1.2 there's four files to keep track of: client, server, fields, methods.
 	//The fields and method files are shared across both sides, but the srgs are not.
 	//in 1.3+ there's only one srg, which is not the same as either the client or server srgs.
@@ -0,0 +1,339 @@
+package net.fabricmc.loom.mcp;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A binary form of parsed MCP mappings, so they can be loaded without going through the text parsers again.
+ * <p>
+ * Every string is stored once, in a string table at the top of the file, and everything else refers to strings by index.
+ * The srgs and packages are read back onto the heap (tiny-remapper wants all of them anyway), but each distinct string
+ * is only decoded once. The fields and methods, which are the biggest part and are mostly looked up one at a time by
+ * the renamer, stay in the memory-mapped file, and {@link MappedMemberMap} reads entries out of it as they're looked up.
+ * The number in each SRG name is parsed when the file is written, so loading doesn't have to look at the names.
+ * <p>
+ * What's stored is the state of an {@link McpMappingsBuilder} before {@code augment} and {@code build}, since augmenting
+ * depends on the jar the mappings are applied to.
+ * <p>
+ * Layout, all big-endian:
+ * <pre>
+ * int magic, int version
+ * int stringCount, int[stringCount + 1] string offsets (relative to the start of the string data), UTF-8 string data
+ * srg joined, srg client, srg server:
+ *   int count, count * (int from, int to) - classes
+ *   int count, count * (int owner, int from, int to) - fields
+ *   int count, count * (int owner, int fromName, int fromDesc, int toName, int toDesc) - methods
+ * packages: int count, count * (int className, int package)
+ * members fields, members methods:
+ *   int count, count * (int srg id (see SrgIdTable) or -1, int srgName, int remappedName, int side, int comment or -1)
+ * </pre>
+ * A single Srg can also be written to its own file ({@link #writeSrg(Path, Srg)}), which has a different magic number,
+ * the same string table, and then just the one srg.
+ */
+public class McpMappingsBinary {
+	private static final int MAGIC = 0x564D4150; //"VMAP"
+	private static final int SRG_MAGIC = 0x56535247; //"VSRG", a file with only one srg in it
+	private static final int VERSION = 2;
+	
+	static final int MEMBER_RECORD_SIZE = 5 * 4;
+	
+	/// writing ///
+	
+	public static void write(Path dest, McpMappingsBuilder builder) throws IOException {
+		write(dest, builder.joined, builder.packages, builder.client, builder.server, builder.fields, builder.methods);
+	}
+	
+	/**
+	 * Writes already-built mappings. Packages were applied by {@code build}, so there aren't any to write.
+	 */
+	public static void write(Path dest, McpMappings mappings) throws IOException {
+		write(dest, mappings.joined, new Packages(), mappings.client, mappings.server, mappings.fields, mappings.methods);
+	}
+	
+	private static void write(Path dest, Srg joined, Packages packages, Srg client, Srg server, Members fields, Members methods) throws IOException {
+		StringTableWriter strings = new StringTableWriter();
+		ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+		DataOutputStream body = new DataOutputStream(bodyBytes);
+		
+		writeSrg(body, strings, joined);
+		writeSrg(body, strings, client);
+		writeSrg(body, strings, server);
+		
+		List<String[]> packageList = new ArrayList<>();
+		packages.forEach((className, pkg) -> packageList.add(new String[] { className, pkg }));
+		body.writeInt(packageList.size());
+		for(String[] pkg : packageList) {
+			body.writeInt(strings.id(pkg[0]));
+			body.writeInt(strings.id(pkg[1]));
+		}
+		
+		writeMembers(body, strings, fields);
+		writeMembers(body, strings, methods);
+		
+		body.flush();
+		writeFile(dest, MAGIC, strings, bodyBytes);
+	}
+	
+	/**
+	 * Writes a single Srg to its own file, in the same format as the srgs in a mappings file.
+	 */
+	public static void writeSrg(Path dest, Srg srg) throws IOException {
+		StringTableWriter strings = new StringTableWriter();
+		ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+		DataOutputStream body = new DataOutputStream(bodyBytes);
+		
+		writeSrg(body, strings, srg);
+		
+		body.flush();
+		writeFile(dest, SRG_MAGIC, strings, bodyBytes);
+	}
+	
+	private static void writeFile(Path dest, int magic, StringTableWriter strings, ByteArrayOutputStream bodyBytes) throws IOException {
+		Path parent = dest.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		
+		//a unique temp file; the client and server workers can both be writing the same mappings at once
+		Path tmp = Files.createTempFile(parent, dest.getFileName().toString(), ".tmp");
+		try {
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				out.writeInt(magic);
+				out.writeInt(VERSION);
+				strings.writeTo(out);
+				bodyBytes.writeTo(out);
+			}
+			
+			//move it into place at the end, so a half-written file never gets loaded
+			Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+	
+	private static void writeSrg(DataOutputStream out, StringTableWriter strings, Srg srg) throws IOException {
+		out.writeInt(srg.classMappings.size());
+		for(Map.Entry<String, String> e : srg.classMappings.entrySet()) {
+			out.writeInt(strings.id(e.getKey()));
+			out.writeInt(strings.id(e.getValue()));
+		}
+		
+		int fieldCount = 0;
+		for(Map<String, String> fieldMappings : srg.fieldMappingsByOwningClass.values()) fieldCount += fieldMappings.size();
+		out.writeInt(fieldCount);
+		for(Map.Entry<String, Map<String, String>> byOwner : srg.fieldMappingsByOwningClass.entrySet()) {
+			int owner = strings.id(byOwner.getKey());
+			for(Map.Entry<String, String> e : byOwner.getValue().entrySet()) {
+				out.writeInt(owner);
+				out.writeInt(strings.id(e.getKey()));
+				out.writeInt(strings.id(e.getValue()));
+			}
+		}
+		
+		int methodCount = 0;
+		for(Map<Srg.MethodEntry, Srg.MethodEntry> methodMappings : srg.methodMappingsByOwningClass.values()) methodCount += methodMappings.size();
+		out.writeInt(methodCount);
+		for(Map.Entry<String, Map<Srg.MethodEntry, Srg.MethodEntry>> byOwner : srg.methodMappingsByOwningClass.entrySet()) {
+			int owner = strings.id(byOwner.getKey());
+			for(Map.Entry<Srg.MethodEntry, Srg.MethodEntry> e : byOwner.getValue().entrySet()) {
+				out.writeInt(owner);
+				out.writeInt(strings.id(e.getKey().name));
+				out.writeInt(strings.id(e.getKey().descriptor));
+				out.writeInt(strings.id(e.getValue().name));
+				out.writeInt(strings.id(e.getValue().descriptor));
+			}
+		}
+	}
+	
+	private static void writeMembers(DataOutputStream out, StringTableWriter strings, Members members) throws IOException {
+		List<Map.Entry<String, Members.Entry>> entries = new ArrayList<>();
+		members.forEach((srgName, entry) -> entries.add(new AbstractMap.SimpleImmutableEntry<>(srgName, entry)));
+		
+		out.writeInt(entries.size());
+		for(Map.Entry<String, Members.Entry> e : entries) {
+			out.writeInt(SrgIdTable.parseId(e.getKey()));
+			out.writeInt(strings.id(e.getKey()));
+			out.writeInt(strings.id(e.getValue().remappedName));
+			out.writeInt(e.getValue().side);
+			out.writeInt(e.getValue().comment == null ? -1 : strings.id(e.getValue().comment));
+		}
+	}
+	
+	private static class StringTableWriter {
+		private final Map<String, Integer> ids = new HashMap<>();
+		private final List<byte[]> encoded = new ArrayList<>();
+		
+		int id(String s) {
+			Integer id = ids.get(s);
+			if(id == null) {
+				id = encoded.size();
+				ids.put(s, id);
+				encoded.add(s.getBytes(StandardCharsets.UTF_8));
+			}
+			return id;
+		}
+		
+		void writeTo(DataOutputStream out) throws IOException {
+			out.writeInt(encoded.size());
+			
+			int offset = 0;
+			out.writeInt(offset);
+			for(byte[] s : encoded) {
+				offset += s.length;
+				out.writeInt(offset);
+			}
+			
+			for(byte[] s : encoded) out.write(s);
+		}
+	}
+	
+	/// reading ///
+	
+	/**
+	 * Memory-maps the file and reads it into a builder. The builder's {@code fields} and {@code methods} are backed by
+	 * read-only {@link MappedMemberMap}s, so don't merge anything into them.
+	 */
+	public static McpMappingsBuilder read(Path path) throws IOException {
+		ByteBuffer buf = map(path, MAGIC);
+		StringTable strings = new StringTable(buf);
+		
+		McpMappingsBuilder builder = new McpMappingsBuilder();
+		readSrg(buf, strings, builder.joined);
+		readSrg(buf, strings, builder.client);
+		readSrg(buf, strings, builder.server);
+		
+		int packageCount = buf.getInt();
+		for(int i = 0; i < packageCount; i++) {
+			builder.packages.put(strings.get(buf.getInt()), strings.get(buf.getInt()));
+		}
+		
+		builder.fields = readMembers(buf, strings);
+		builder.methods = readMembers(buf, strings);
+		
+		return builder;
+	}
+	
+	/**
+	 * Reads a file written by {@link #writeSrg(Path, Srg)}.
+	 */
+	public static Srg readSrg(Path path) throws IOException {
+		ByteBuffer buf = map(path, SRG_MAGIC);
+		StringTable strings = new StringTable(buf);
+		
+		Srg srg = new Srg();
+		readSrg(buf, strings, srg);
+		return srg;
+	}
+	
+	private static ByteBuffer map(Path path, int expectedMagic) throws IOException {
+		ByteBuffer buf;
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			//the mapping stays valid after the channel is closed
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		
+		int magic = buf.getInt();
+		if(magic != expectedMagic) throw new IOException("Invalid magic: " + Integer.toHexString(magic));
+		int version = buf.getInt();
+		if(version != VERSION) throw new IOException("Unknown version: " + version);
+		
+		return buf;
+	}
+	
+	private static void readSrg(ByteBuffer buf, StringTable strings, Srg srg) {
+		int classCount = buf.getInt();
+		for(int i = 0; i < classCount; i++) {
+			srg.putClassMapping(strings.get(buf.getInt()), strings.get(buf.getInt()));
+		}
+		
+		int fieldCount = buf.getInt();
+		for(int i = 0; i < fieldCount; i++) {
+			srg.putFieldMapping(strings.get(buf.getInt()), strings.get(buf.getInt()), strings.get(buf.getInt()));
+		}
+		
+		int methodCount = buf.getInt();
+		for(int i = 0; i < methodCount; i++) {
+			srg.putMethodMapping(strings.get(buf.getInt()), strings.get(buf.getInt()), strings.get(buf.getInt()), strings.get(buf.getInt()), strings.get(buf.getInt()));
+		}
+	}
+	
+	private static Members readMembers(ByteBuffer buf, StringTable strings) {
+		int count = buf.getInt();
+		MappedMemberMap members = new MappedMemberMap(buf.duplicate(), buf.position(), count, strings);
+		buf.position(buf.position() + count * MEMBER_RECORD_SIZE);
+		return new Members(members);
+	}
+	
+	/**
+	 * The string table of a memory-mapped file. Strings are decoded the first time they're asked for, and remembered.
+	 * Safe to use from multiple threads; only absolute reads are done on the buffer.
+	 */
+	static class StringTable {
+		StringTable(ByteBuffer buf) {
+			this.buf = buf.duplicate();
+			this.count = buf.getInt();
+			this.offsetsPos = buf.position();
+			this.dataPos = offsetsPos + (count + 1) * 4;
+			this.decoded = new String[count];
+			
+			//skip past the table
+			buf.position(dataPos + this.buf.getInt(offsetsPos + count * 4));
+		}
+		
+		private final ByteBuffer buf;
+		private final int count;
+		private final int offsetsPos, dataPos;
+		
+		//Strings are immutable, so if two threads race to decode the same one, it doesn't matter which one wins
+		private final String[] decoded;
+		
+		String get(int id) {
+			String s = decoded[id];
+			if(s == null) {
+				int start = start(id), end = start(id + 1);
+				byte[] bytes = new byte[end - start];
+				for(int i = 0; i < bytes.length; i++) bytes[i] = buf.get(start + i);
+				s = new String(bytes, StandardCharsets.UTF_8);
+				decoded[id] = s;
+			}
+			return s;
+		}
+		
+		/**
+		 * Same as {@code get(id).equals(s)}, but doesn't decode the string if it's ASCII, which SRG names always are.
+		 */
+		boolean equalsAt(int id, String s) {
+			String known = decoded[id];
+			if(known != null) return known.equals(s);
+			
+			int start = start(id), end = start(id + 1);
+			if(end - start != s.length()) {
+				//an ASCII string is as long in UTF-8 as it is in chars, so if s is ASCII, they can't be equal
+				for(int i = 0; i < s.length(); i++) if(s.charAt(i) >= 0x80) return get(id).equals(s);
+				return false;
+			}
+			for(int i = 0; i < s.length(); i++) {
+				byte b = buf.get(start + i);
+				if(b < 0) return get(id).equals(s); //not ASCII
+				if(b != s.charAt(i)) return false;
+			}
+			return true;
+		}
+		
+		private int start(int id) {
+			return dataPos + buf.getInt(offsetsPos + id * 4);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package net.fabricmc.loom.mcp;
+
+import javax.annotation.Nullable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A JVM-wide cache of built {@link McpMappings}, so a Gradle daemon that configures the same project (or several
+ * subprojects using the same mappings) over and over doesn't parse the MCP zip and scan the jarmodded jar every time.
+ * <p>
+ * Entries are keyed by the content hash of the mappings zip and the content hash of the jar the scan data came from,
+ * since both go into {@code McpMappings}. Built mappings are never modified, so the same instance can be handed
+ * to every project that asks.
+ * <p>
+ * The mappings are held through {@link SoftReference}s, so the garbage collector throws them away when the daemon is
+ * short on memory instead of running out of it. (Weak references would be cleared at the very next GC, which would
+ * make the cache useless between builds.) Cleared entries are removed from the map the next time the cache is used.
+ */
+public class McpMappingsCache {
+	private static final Map<String, Entry> CACHE = new ConcurrentHashMap<>();
+	private static final ReferenceQueue<McpMappings> CLEARED = new ReferenceQueue<>();
+	
+	public static @Nullable McpMappings get(String mappingsHash, String scannedJarHash) {
+		expungeCleared();
+		
+		Entry entry = CACHE.get(key(mappingsHash, scannedJarHash));
+		return entry == null ? null : entry.get();
+	}
+	
+	/**
+	 * Whether any mappings built from this mappings zip are cached, regardless of which jar was scanned.
+	 * If so, it's likely that parsing the zip again isn't necessary.
+	 */
+	public static boolean hasAnyFor(String mappingsHash) {
+		expungeCleared();
+		
+		String prefix = mappingsHash + "/";
+		for(Map.Entry<String, Entry> e : CACHE.entrySet()) {
+			if(e.getKey().startsWith(prefix) && e.getValue().get() != null) return true;
+		}
+		return false;
+	}
+	
+	public static void put(String mappingsHash, String scannedJarHash, McpMappings mappings) {
+		expungeCleared();
+		
+		String key = key(mappingsHash, scannedJarHash);
+		CACHE.put(key, new Entry(key, mappings, CLEARED));
+	}
+	
+	private static String key(String mappingsHash, String scannedJarHash) {
+		return mappingsHash + "/" + scannedJarHash;
+	}
+	
+	private static void expungeCleared() {
+		Reference<? extends McpMappings> ref;
+		while((ref = CLEARED.poll()) != null) {
+			//only remove the mapping if it hasn't already been replaced with a fresh entry
+			CACHE.remove(((Entry) ref).key, ref);
+		}
+	}
+	
+	private static class Entry extends SoftReference<McpMappings> {
+		Entry(String key, McpMappings referent, ReferenceQueue<McpMappings> queue) {
+			super(referent, queue);
+			this.key = key;
+		}
+		
+		final String key;
+	}
+}
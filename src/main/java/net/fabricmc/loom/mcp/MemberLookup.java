@@ -0,0 +1,19 @@
+package net.fabricmc.loom.mcp;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Something the renamers can look SRG names up in. {@link Members} is one, but {@link McpMappings} hands out a
+ * {@link MembersIndex} (or the {@link MappedMemberMap} itself) instead, since those are faster.
+ */
+public interface MemberLookup {
+	@Nullable Members.Entry remapSrg(String srg);
+	
+	/**
+	 * Whether every SRG name in here is shaped like {@code func_12345_a} or {@code field_12345_a}, so that names that
+	 * aren't shaped like that can be skipped without looking them up.
+	 */
+	default boolean onlySrgShapedNames() {
+		return false;
+	}
+}
@@ -12,12 +12,22 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.BiConsumer;
 
 /**
  * Parser for fields.csv and methods.csv (they have the same format).
  */
-public class Members {
-	public final Map<String, Entry> members = new HashMap<>();
+public class Members implements MemberLookup {
+	public Members() {
+		this(new HashMap<>());
+	}
+	
+	//for McpMappingsBinary, which passes a read-only MappedMemberMap
+	Members(Map<String, Entry> members) {
+		this.members = members;
+	}
+	
+	public final Map<String, Entry> members;
 	
 	public Members read(Path path, StringInterner mem) throws IOException {
 		List<String> lines = Files.readAllLines(path);
@@ -82,10 +92,25 @@ public class Members {
 		members.putAll(other.members);
 	}
 	
+	public void forEach(BiConsumer<String, Entry> action) {
+		members.forEach(action);
+	}
+	
 	public boolean isEmpty() {
 		return members.isEmpty();
 	}
 	
+	/**
+	 * Something that's faster to call {@code remapSrg} on than this. It doesn't see changes made after it's created.
+	 * @see MembersIndex
+	 */
+	public MemberLookup index() {
+		//a memory-mapped map is read-only and has its own index already
+		if(members instanceof MappedMemberMap) return (MappedMemberMap) members;
+		else return new MembersIndex(this);
+	}
+	
+	@Override
 	public @Nullable Entry remapSrg(String srg) {
 		return members.get(srg);
 	}
@@ -96,10 +121,17 @@ public class Members {
 		public final @Nullable String comment; //TODO, non-nullable, use empty string for no comment
 		
 		public Entry(String remappedName, int side, @Nullable String comment) {
+			this(remappedName, side, comment, false);
+		}
+		
+		//for comments that went through the constructor once already
+		Entry(String remappedName, int side, @Nullable String comment, boolean commentAlreadyCleaned) {
 			this.remappedName = remappedName;
 			this.side = side;
 			
-			if(comment == null || comment.trim().isEmpty()) {
+			if(commentAlreadyCleaned) {
+				this.comment = comment;
+			} else if(comment == null || comment.trim().isEmpty()) {
 				this.comment = null;
 			} else {
 				//"handle" the form of escaping used in the CSV
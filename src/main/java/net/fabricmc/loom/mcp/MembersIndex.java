@@ -0,0 +1,71 @@
+package net.fabricmc.loom.mcp;
+
+import net.fabricmc.loom.mcp.Members.Entry;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index over a copy of a {@link Members}, that's quick to look SRG names up in. {@code remapSrg} is called for every
+ * field and method reference in every class the renamer sees, and most of those names ({@code a}, {@code <init>},
+ * {@code equals}...) can't be SRG names at all.
+ * <p>
+ * So instead of hashing the whole name, names that aren't shaped like {@code func_12345_a} or {@code field_12345_a}
+ * are turned away by looking at the first character or so, and the rest are looked up by their number in a
+ * {@link SrgIdTable}. Entries whose names aren't shaped like that (there normally aren't any) go in a regular map.
+ */
+public class MembersIndex implements MemberLookup {
+	MembersIndex(Members source) {
+		List<String> names = new ArrayList<>();
+		List<Entry> entries = new ArrayList<>();
+		Map<String, Entry> irregular = new HashMap<>();
+		source.forEach((name, entry) -> {
+			if(SrgIdTable.parseId(name) == -1) {
+				irregular.put(name, entry);
+			} else {
+				names.add(name);
+				entries.add(entry);
+			}
+		});
+		
+		this.irregular = irregular;
+		
+		this.table = new SrgIdTable(names.size());
+		for(int i = 0; i < names.size(); i++) table.put(SrgIdTable.parseId(names.get(i)), i);
+		
+		//lay the names and entries out in slot order, to save a hop through the record number on lookups
+		this.slotNames = new String[table.capacity()];
+		this.slotEntries = new Entry[table.capacity()];
+		for(int slot = 0; slot < table.capacity(); slot++) {
+			if(table.occupied(slot)) {
+				slotNames[slot] = names.get(table.record(slot));
+				slotEntries[slot] = entries.get(table.record(slot));
+			}
+		}
+	}
+	
+	private final SrgIdTable table;
+	private final String[] slotNames;
+	private final Entry[] slotEntries;
+	private final Map<String, Entry> irregular;
+	
+	@Override
+	public @Nullable Entry remapSrg(String srg) {
+		int id = SrgIdTable.parseId(srg);
+		if(id == -1) return irregular.isEmpty() ? null : irregular.get(srg);
+		
+		for(int slot = table.start(id); table.occupied(slot); slot = table.next(slot)) {
+			if(table.id(slot) == id && slotNames[slot].equals(srg)) return slotEntries[slot];
+		}
+		
+		return null;
+	}
+	
+	@Override
+	public boolean onlySrgShapedNames() {
+		return irregular.isEmpty();
+	}
+}
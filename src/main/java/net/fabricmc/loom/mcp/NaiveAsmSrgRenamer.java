@@ -6,13 +6,15 @@ import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
 public class NaiveAsmSrgRenamer extends ClassVisitor implements Opcodes {
-	public NaiveAsmSrgRenamer(ClassVisitor classVisitor, Members fields, Members methods) {
+	public NaiveAsmSrgRenamer(ClassVisitor classVisitor, MemberLookup fields, MemberLookup methods) {
 		super(Opcodes.ASM9, classVisitor);
 		this.fields = fields;
 		this.methods = methods;
+		this.textualRenamer = new NaiveTextualSrgRenamer(fields, methods);
 	}
 	
-	private final Members fields, methods;
+	private final MemberLookup fields, methods;
+	private final NaiveTextualSrgRenamer textualRenamer;
 	
 	@Override
 	public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
@@ -52,7 +54,7 @@ public class NaiveAsmSrgRenamer extends ClassVisitor implements Opcodes {
 			//string literals (!)
 			//yes, mcp does this; check patches/Start.java, it refers to a field using an SRG name
 			//even though *we* don't use Start.java, it's still correct to map like this, pretty sure
-			if(value instanceof String) super.visitLdcInsn(new NaiveTextualSrgRenamer(fields, methods).rename((String) value));
+			if(value instanceof String) super.visitLdcInsn(textualRenamer.rename((String) value));
 			else super.visitLdcInsn(value);
 		}
 	}
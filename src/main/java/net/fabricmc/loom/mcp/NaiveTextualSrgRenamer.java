@@ -1,46 +1,97 @@
 package net.fabricmc.loom.mcp;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
+/**
+ * Finds SRG names like {@code func_12345_a} and {@code field_12345_a} in text, and replaces them with their MCP names.
+ * <p>
+ * Not thread-safe: the output buffer is reused between calls, so keep one per thread (or per class being renamed).
+ */
 public class NaiveTextualSrgRenamer {
-	public NaiveTextualSrgRenamer(Members fields, Members methods) {
+	public NaiveTextualSrgRenamer(MemberLookup fields, MemberLookup methods) {
 		this.fields = fields;
 		this.methods = methods;
 	}
 	
-	private final Members fields, methods;
+	private final MemberLookup fields, methods;
+	private final StringBuilder out = new StringBuilder();
 	
-	private static final Pattern FUNC = Pattern.compile("func_[0-9]+_[a-zA-Z_]+");
-	private static final Pattern FIELD = Pattern.compile("field_[0-9]+_[a-zA-Z_]+");
+	//Matches the same things as these regexes did, in one pass instead of two:
+	// func_[0-9]+_[a-zA-Z_]+
+	// field_[0-9]+_[a-zA-Z_]+
 	//private static final Pattern PARAM = Pattern.compile("p_[\\w]+_\\d+_]");
 	//reference: mcp726a.zip, commands.py, line 1217
 	
+	/**
+	 * @return the renamed text; {@code input} itself (and nothing is allocated) if there's nothing to rename in it
+	 */
 	public String rename(String input) {
-		//again, i wish i had the fancy replaceAll version in java 17, but i need java 8
-		//Cannot use StringBuilder until java 9 too, need the dorky `synchronized` StringBuffer
-		StringBuffer out = new StringBuffer(input.length());
-		
-		//rename func_12345_a -> method names
-		Matcher funcMatcher = FUNC.matcher(input);
-		while(funcMatcher.find()) {
-			Members.Entry entry = methods.remapSrg(funcMatcher.group());
-			funcMatcher.appendReplacement(out, entry == null ? funcMatcher.group() : entry.remappedName);
-		}
-		funcMatcher.appendTail(out);
+		int copiedUpTo = 0; //everything in input before this index has been dealt with
+		boolean changed = false;
 		
-		//rebuffer
-		input = out.toString();
-		out = new StringBuffer(input.length());
+		//The regexes didn't look for another func_ inside a func_ they'd already matched (and same for field_),
+		//but the field_ pass did look inside func_ names that weren't renamed. Keep doing that.
+		int funcSearchFrom = 0, fieldSearchFrom = 0;
 		
-		//rename field_12346_a -> field names
-		Matcher fieldMatcher = FIELD.matcher(input);
-		while(fieldMatcher.find()) {
-			Members.Entry entry = fields.remapSrg(fieldMatcher.group());
-			fieldMatcher.appendReplacement(out, entry == null ? fieldMatcher.group() : entry.remappedName);
+		for(int start = input.indexOf('f'); start != -1; start = input.indexOf('f', start + 1)) {
+			boolean func;
+			int i;
+			if(start >= funcSearchFrom && input.startsWith("func_", start)) {
+				func = true;
+				i = start + 5;
+			} else if(start >= fieldSearchFrom && input.startsWith("field_", start)) {
+				func = false;
+				i = start + 6;
+			} else continue;
+			
+			int end = tokenEnd(input, i);
+			if(end == -1) continue;
+			
+			Members.Entry entry = (func ? methods : fields).remapSrg(input.substring(start, end));
+			if(entry == null) {
+				if(func) funcSearchFrom = end;
+				else fieldSearchFrom = end;
+				continue;
+			}
+			
+			if(!changed) {
+				out.setLength(0);
+				changed = true;
+			}
+			out.append(input, copiedUpTo, start).append(entry.remappedName);
+			copiedUpTo = end;
+			
+			start = end - 1; //keep looking after the token
 		}
-		fieldMatcher.appendTail(out);
 		
+		if(!changed) return input;
+		
+		out.append(input, copiedUpTo, input.length());
 		return out.toString();
 	}
+	
+	/**
+	 * @param i the index right after the "func_" or "field_"
+	 * @return the end of a [0-9]+_[a-zA-Z_]+ token starting at {@code i}, or -1 if there isn't one
+	 */
+	private static int tokenEnd(String input, int i) {
+		int len = input.length();
+		
+		int digitsStart = i;
+		while(i < len && isDigit(input.charAt(i))) i++;
+		if(i == digitsStart || i >= len || input.charAt(i) != '_') return -1;
+		i++;
+		
+		int suffixStart = i;
+		while(i < len && isSuffixChar(input.charAt(i))) i++;
+		if(i == suffixStart) return -1;
+		
+		return i;
+	}
+	
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+	
+	private static boolean isSuffixChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+	}
 }
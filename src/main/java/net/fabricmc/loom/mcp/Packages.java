@@ -8,6 +8,7 @@ import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 /**
  * Parser for Forge's packages.csv.
@@ -46,6 +47,15 @@ public class Packages {
 		return packages.isEmpty();
 	}
 	
+	//for McpMappingsBinary
+	void put(String srgClassNameOnly, String pkg) {
+		packages.put(srgClassNameOnly, pkg);
+	}
+	
+	void forEach(BiConsumer<String, String> action) {
+		packages.forEach(action);
+	}
+	
 	/**
 	 * Applies the packaging transformation to a class name, in internal format.
 	 */
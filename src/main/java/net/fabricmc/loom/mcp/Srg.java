@@ -255,7 +255,7 @@ public class Srg {
 	 * emulates the "rename the SRG using find-and-replace" step of official tools.
 	 * Anywhere an SRG name could appear, it is fed through the fields/methods csvs.
 	 */
-	public Srg named(Members fields, Members methods) {
+	public Srg named(MemberLookup fields, MemberLookup methods) {
 		//StringInterner mem = new StringInterner(); //Not necessary since i only make selections from existing String objects
 		Srg named = new Srg();
 		
@@ -288,7 +288,7 @@ public class Srg {
 		return named;
 	}
 	
-	public Srg reobf(Members fields, Members methods, boolean reobfToSrg) {
+	public Srg reobf(MemberLookup fields, MemberLookup methods, boolean reobfToSrg) {
 		Srg reobf = new Srg();
 		
 		if(reobfToSrg) {
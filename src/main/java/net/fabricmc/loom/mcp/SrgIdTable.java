@@ -0,0 +1,88 @@
+package net.fabricmc.loom.mcp;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash table from the number in an SRG name (the 12345 in {@code func_12345_a}) to record numbers.
+ * <p>
+ * The number alone isn't guaranteed to be unique, so the same id can be put more than once; callers walk every slot
+ * with a matching id and compare the full name themselves:
+ * <pre>
+ * for(int slot = table.start(id); table.occupied(slot); slot = table.next(slot)) {
+ *   if(table.id(slot) == id &amp;&amp; nameOf(table.record(slot)).equals(name)) ...
+ * }
+ * </pre>
+ */
+final class SrgIdTable {
+	SrgIdTable(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(expectedSize, 4) * 2 - 1) << 1; //power of two, at most half full
+		this.mask = capacity - 1;
+		this.ids = new int[capacity];
+		this.records = new int[capacity];
+		Arrays.fill(records, -1);
+	}
+	
+	private final int mask;
+	private final int[] ids;
+	private final int[] records;
+	
+	void put(int id, int record) {
+		int slot = start(id);
+		while(occupied(slot)) slot = next(slot);
+		ids[slot] = id;
+		records[slot] = record;
+	}
+	
+	int capacity() {
+		return records.length;
+	}
+	
+	int start(int id) {
+		return (id * 0x9E3779B9) >>> 7 & mask; //spread out consecutive ids
+	}
+	
+	boolean occupied(int slot) {
+		return records[slot] != -1;
+	}
+	
+	int next(int slot) {
+		return (slot + 1) & mask;
+	}
+	
+	int id(int slot) {
+		return ids[slot];
+	}
+	
+	int record(int slot) {
+		return records[slot];
+	}
+	
+	/**
+	 * Parses the number out of a name shaped like {@code func_12345_a} or {@code field_12345_a}.
+	 * @return the number, or -1 if the name isn't shaped like that
+	 */
+	static int parseId(String name) {
+		int len = name.length();
+		
+		//the one check that almost every non-SRG name fails
+		if(len < 7 || name.charAt(0) != 'f') return -1;
+		
+		int i;
+		if(name.charAt(1) == 'u' && name.charAt(2) == 'n' && name.charAt(3) == 'c' && name.charAt(4) == '_') i = 5;
+		else if(name.charAt(1) == 'i' && name.charAt(2) == 'e' && name.charAt(3) == 'l' && name.charAt(4) == 'd' && name.charAt(5) == '_') i = 6;
+		else return -1;
+		
+		int digitsStart = i, id = 0;
+		while(i < len) {
+			char c = name.charAt(i);
+			if(c < '0' || c > '9') break;
+			if(i - digitsStart == 9) return -1; //won't fit in an int, not a real srg name anyway
+			id = id * 10 + (c - '0');
+			i++;
+		}
+		
+		//at least one digit, then an underscore, then at least one more character
+		if(i == digitsStart || i + 1 >= len || name.charAt(i) != '_') return -1;
+		return id;
+	}
+}
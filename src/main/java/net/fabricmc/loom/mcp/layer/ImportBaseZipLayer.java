@@ -6,7 +6,6 @@ import net.fabricmc.loom.util.StringInterner;
 import net.fabricmc.loom.util.ZipUtil;
 import org.gradle.api.logging.Logger;
 
-import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.Path;
 import java.security.MessageDigest;
@@ -29,8 +28,6 @@ public class ImportBaseZipLayer implements Layer {
 	
 	@Override
 	public void updateHasher(MessageDigest hasher) throws Exception {
-		hasher.update(zipPath.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8));
-		hasher.update((byte) 0);
 		Checksum.feedFileToHasher(zipPath, hasher);
 	}
 }
@@ -7,7 +7,6 @@ import net.fabricmc.loom.util.StringInterner;
 import net.fabricmc.loom.util.ZipUtil;
 import org.gradle.api.logging.Logger;
 
-import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.Path;
 import java.security.MessageDigest;
@@ -35,8 +34,6 @@ public class ImportClassesLayer implements Layer {
 	
 	@Override
 	public void updateHasher(MessageDigest hasher) throws Exception {
-		hasher.update(zipPath.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8));
-		hasher.update((byte) 0);
 		Checksum.feedFileToHasher(zipPath, hasher);
 	}
 }
@@ -3,9 +3,11 @@ package net.fabricmc.loom.mcp.layer;
 import net.fabricmc.loom.LoomGradleExtension;
 import net.fabricmc.loom.WellKnownLocations;
 import net.fabricmc.loom.mcp.McpMappings;
+import net.fabricmc.loom.mcp.McpMappingsBinary;
 import net.fabricmc.loom.mcp.McpMappingsBuilder;
 import net.fabricmc.loom.util.Checksum;
 import net.fabricmc.loom.util.DownloadSession;
+import net.fabricmc.loom.util.FileFingerprints;
 import net.fabricmc.loom.util.StringInterner;
 import net.fabricmc.loom.util.ZipUtil;
 import org.gradle.api.Project;
@@ -214,6 +216,14 @@ public class LayeredMcpMappings {
 					if(!mappings.fields.isEmpty()) mappings.fields.writeTo(outFs.getPath("fields.csv"));
 					if(!mappings.methods.isEmpty()) mappings.methods.writeTo(outFs.getPath("methods.csv"));
 				}
+				
+				//and a binary copy for MappingsWrapper, so it doesn't have to parse the zip right back in
+				try {
+					String zipHash = new FileFingerprints(WellKnownLocations.getUserCache(project).resolve("fingerprints")).fingerprint(mappingsPath);
+					McpMappingsBinary.write(WellKnownLocations.getMappingsBinaryCache(project).resolve(zipHash + ".bin"), mappings);
+				} catch (Exception e) {
+					project.getLogger().warn("|-> Couldn't write binary mappings: {}", e.getMessage());
+				}
 				project.getLogger().lifecycle("|-> Done.");
 				
 				//write info file pointing out why this file is in the gradle cache
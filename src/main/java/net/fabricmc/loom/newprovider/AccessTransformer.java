@@ -5,21 +5,17 @@ import net.fabricmc.loom.LoomGradleExtension;
 import net.fabricmc.loom.mcp.ForgeAccessTransformerSet;
 import net.fabricmc.loom.util.Check;
 import net.fabricmc.loom.util.Checksum;
+import net.fabricmc.loom.util.JarReader;
+import net.fabricmc.loom.util.JarWriter;
 import net.fabricmc.loom.util.ZipUtil;
 import org.gradle.api.Project;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.FileSystem;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -100,89 +96,94 @@ public class AccessTransformer extends NewProvider<AccessTransformer> {
 		transformedJar = getOrCreate(getCacheDir().resolve(props.subst(transformedFilename)), dest -> {
 			log.lifecycle("|-> Access-transformed jar does not exist, parsing Forge's access transformers...");
 			
-			//Read forge ats
-			ForgeAccessTransformerSet ats = new ForgeAccessTransformerSet();
-			try(FileSystem forgeFs = ZipUtil.openFs(forgeJar)) {
-				//TODO: where do these names come from, can they be read from the jar?
-				// 1.2.5 does not have these files
-				for(String atFileName : Arrays.asList("forge_at.cfg", "fml_at.cfg")) {
-					Path atFilePath = forgeFs.getPath(atFileName);
-					if(Files.exists(atFilePath)) {
-						log.info("\\-> Loading {}...", atFileName);
-						ats.load(atFilePath, mappedAccessTransformers);
-					} else {
-						log.info("\\-> No {} in the Forge jar.", atFileName);
-					}
-				}
-			}
-			
-			log.info("\\-> Found {} access transformers affecting {} classes inside Forge.", ats.getCount(), ats.getTouchedClassCount());
-			
-			if(!customAccessTransformers.isEmpty()) {
-				log.info("|-> Loading {} custom access transformer file{}...", customAccessTransformers.size(), customAccessTransformers.size() == 1 ? "" : "s");
-				
-				for(Path customAtPath : customAccessTransformers) {
-					if(Files.exists(customAtPath)) {
-						log.info("\\-> Loading {}...", customAtPath);
-						ats.load(customAtPath, mappedAccessTransformers);
-					} else {
-						log.warn("\\-> Custom AT at {} doesn't exist!", customAtPath);
-					}
-				}
-				
-				log.info("\\-> After incorporationg custom ATs, there are {} access transformers affecting {} classes.", ats.getCount(), ats.getTouchedClassCount());
-			}
+			ForgeAccessTransformerSet ats = readAccessTransformers();
 			
 			log.info("|-> Performing transform...");
 			
-			try(FileSystem unAccessTransformedFs = ZipUtil.openFs(inputJar); FileSystem accessTransformedFs = ZipUtil.createFs(dest)) {
-				Files.walkFileTree(unAccessTransformedFs.getPath("/"), new SimpleFileVisitor<Path>() {
-					@Override
-					public FileVisitResult visitFile(Path srcPath, BasicFileAttributes attrs) throws IOException {
-						Path dstPath = accessTransformedFs.getPath(srcPath.toString());
-						Files.createDirectories(dstPath.getParent());
+			try(JarWriter accessTransformed = new JarWriter(dest)) {
+				for(JarReader.Entry entry : new JarReader(inputJar)) {
+					if(entry.isDirectory()) continue;
+					
+					if(entry.name.endsWith(".class")) {
+						//Kludgey, but means we know the class data without reading the file
+						String className = entry.name.substring(0, entry.name.length() - ".class".length());
+						
+						log.debug("Visiting class {}", className);
 						
-						if(srcPath.toString().endsWith(".class")) {
-							//Kludgey, but means we know the class data without reading the file
-							String className = srcPath.toString()
-								.replace("\\", "/")     //maybe windows does this idk?
-								.substring(1)           //leading slash
-								.replace(".class", ""); //funny extension
+						if(ats.touchesClass(className)) {
+							log.debug("There's an access transformer for {}", className);
 							
-							log.debug("Visiting class {}", className);
+							ClassReader srcClassReader = new ClassReader(entry.bytes());
+							ClassWriter dstClassWriter = new ClassWriter(0);
+							srcClassReader.accept(ats.new AccessTransformingClassVisitor(dstClassWriter), 0);
+							accessTransformed.write(entry.name, dstClassWriter.toByteArray());
 							
-							if(ats.touchesClass(className)) {
-								log.debug("There's an access transformer for {}", className);
-								
-								try(InputStream srcReader = new BufferedInputStream((Files.newInputStream(srcPath)))) {
-									ClassReader srcClassReader = new ClassReader(srcReader);
-									ClassWriter dstClassWriter = new ClassWriter(0);
-									srcClassReader.accept(ats.new AccessTransformingClassVisitor(dstClassWriter), 0);
-									Files.write(dstPath, dstClassWriter.toByteArray());
-								}
-								
-								return FileVisitResult.CONTINUE;
-							}
+							continue;
 						}
-						
-						log.debug("Copying {} without changing it (not a class/no AT for it)", srcPath);
-						
-						Files.copy(srcPath, dstPath);
-						return FileVisitResult.CONTINUE;
 					}
-				});
+					
+					log.debug("Copying {} without changing it (not a class/no AT for it)", entry.name);
+					
+					accessTransformed.copy(entry);
+				}
+				
+				accessTransformed.finish();
 			}
 			
 			log.info("|-> Access transformation success! :)");
 			
-			List<String> unusedAtsReport = ats.reportUnusedTransformers();
-			if(!unusedAtsReport.isEmpty()) {
-				log.warn("|-> Found {} unused access transformers.", unusedAtsReport.size());
-				unusedAtsReport.forEach(log::warn);
-			}
+			reportUnusedTransformers(ats);
 		});
 		log.lifecycle("] access-transformed jar: {}", transformedJar);
 		
 		return this;
 	}
+	
+	//Also used by NaiveRenamer's fused mode, which applies the ATs without creating an access-transformed jar
+	ForgeAccessTransformerSet readAccessTransformers() throws Exception {
+		Check.notNull(forgeJar, "forge version");
+		
+		//Read forge ats
+		ForgeAccessTransformerSet ats = new ForgeAccessTransformerSet();
+		try(FileSystem forgeFs = ZipUtil.openFs(forgeJar)) {
+			//TODO: where do these names come from, can they be read from the jar?
+			// 1.2.5 does not have these files
+			for(String atFileName : Arrays.asList("forge_at.cfg", "fml_at.cfg")) {
+				Path atFilePath = forgeFs.getPath(atFileName);
+				if(Files.exists(atFilePath)) {
+					log.info("\\-> Loading {}...", atFileName);
+					ats.load(atFilePath, mappedAccessTransformers);
+				} else {
+					log.info("\\-> No {} in the Forge jar.", atFileName);
+				}
+			}
+		}
+		
+		log.info("\\-> Found {} access transformers affecting {} classes inside Forge.", ats.getCount(), ats.getTouchedClassCount());
+		
+		if(!customAccessTransformers.isEmpty()) {
+			log.info("|-> Loading {} custom access transformer file{}...", customAccessTransformers.size(), customAccessTransformers.size() == 1 ? "" : "s");
+			
+			for(Path customAtPath : customAccessTransformers) {
+				if(Files.exists(customAtPath)) {
+					log.info("\\-> Loading {}...", customAtPath);
+					ats.load(customAtPath, mappedAccessTransformers);
+				} else {
+					log.warn("\\-> Custom AT at {} doesn't exist!", customAtPath);
+				}
+			}
+			
+			log.info("\\-> After incorporationg custom ATs, there are {} access transformers affecting {} classes.", ats.getCount(), ats.getTouchedClassCount());
+		}
+		
+		return ats;
+	}
+	
+	void reportUnusedTransformers(ForgeAccessTransformerSet ats) {
+		List<String> unusedAtsReport = ats.reportUnusedTransformers();
+		if(!unusedAtsReport.isEmpty()) {
+			log.warn("|-> Found {} unused access transformers.", unusedAtsReport.size());
+			unusedAtsReport.forEach(log::warn);
+		}
+	}
 }
@@ -24,16 +24,18 @@
 
 package net.fabricmc.loom.newprovider;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
 import net.fabricmc.loom.LoomGradleExtension;
+import net.fabricmc.loom.util.AssetIndex;
+import net.fabricmc.loom.util.FileLinker;
+import net.fabricmc.loom.util.ParallelDownloads;
 import net.fabricmc.loom.util.VersionManifest;
 import org.gradle.api.Project;
 
-import java.io.BufferedReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Downloads Minecraft's global asset index, the asset index for the selected version, and downloads all assets inside that index.
@@ -47,10 +49,12 @@ public class AssetDownloader extends NewProvider<AssetDownloader> {
 	//inputs
 	private VersionManifest versionManifest;
 	private String resourcesBaseUrl;
+	private int downloadThreads = 1;
 	
 	//outputs
 	private Path assetIndexJson;
 	private Path finishedFlag;
+	private Path objectsDir;
 	private Path assetsDownloadDir;
 	private Path assetsGameRoot;
 	private boolean legacyLayout;
@@ -65,6 +69,22 @@ public class AssetDownloader extends NewProvider<AssetDownloader> {
 		return this;
 	}
 	
+	public AssetDownloader downloadThreads(int downloadThreads) {
+		this.downloadThreads = downloadThreads;
+		return this;
+	}
+	
+	/**
+	 * Where the assets are stored by hash, no matter what layout this version uses.
+	 */
+	public Path getObjectsDir() {
+		return objectsDir;
+	}
+	
+	/**
+	 * Where the assets are laid out the way the game expects. For legacy-layout versions, that's a tree of files named
+	 * like the game names them, linked to the files in {@link #getObjectsDir()}.
+	 */
 	public Path getAssetsDownloadDir() {
 		return assetsDownloadDir;
 	}
@@ -94,28 +114,22 @@ public class AssetDownloader extends NewProvider<AssetDownloader> {
 			.etag(true)
 			.gzip(true)
 			.skipIfSha1Equals(versionManifest.assetIndexReference.sha1) //TODO: kinda subsumed by skipIfExists lol
+			.expectSha1(versionManifest.assetIndexReference.sha1)
 			//.skipIfExists()
 			.download();
 		
-		//parse it as json
-		JsonObject assets;
-		try(BufferedReader in = Files.newBufferedReader(assetIndexJson)) {
-			assets = new Gson().fromJson(in, JsonObject.class);
-		}
-		
 		//find what layout it's in
-		legacyLayout =
-			//Every version other than 1.6:
-			(assets.has("map_to_resources") && assets.getAsJsonPrimitive("map_to_resources").getAsBoolean()) ||
-			//1.6, for some reason:
-			(assets.has("virtual") && assets.getAsJsonPrimitive("virtual").getAsBoolean());
+		legacyLayout = AssetIndex.isLegacyLayout(assetIndexJson);
 		
 		//decide what directory to put the output artifacts in
+		//Everything is downloaded into the objects directory. Legacy-layout versions get a tree of links into it, so all the
+		//versions that use the same sound or texture share one copy.
+		objectsDir = assetsCache.resolve("objects");
 		if(legacyLayout) {
 			assetsDownloadDir = assetsCache.resolve("legacy").resolve(versionManifest.assetIndexReference.id);
 			assetsGameRoot = assetsDownloadDir;
 		} else {
-			assetsDownloadDir = assetsCache.resolve("objects");
+			assetsDownloadDir = objectsDir;
 			assetsGameRoot = assetsCache; //non-legacy layout games (1.7+) parse the asset index internally
 		}
 		
@@ -125,53 +139,57 @@ public class AssetDownloader extends NewProvider<AssetDownloader> {
 	public AssetDownloader downloadAssets() throws Exception {
 		if(Files.exists(finishedFlag)) return this; //nothing to do
 		
-		//parse it as json again! (this avoids having to hold `assets` in memory across prepare/downloadAssets, 99% of the time it is wasted ram)
-		JsonObject assets;
-		try(BufferedReader in = Files.newBufferedReader(assetIndexJson)) {
-			assets = new Gson().fromJson(in, JsonObject.class);
-		}
-		
-		log.lifecycle("|-> Downloading assets to {}...", assetsDownloadDir);
-		JsonObject objects = assets.getAsJsonObject("objects");
-		
-		//<logging>
-		int assetCount = objects.size();
-		log.lifecycle("|-> Found {} assets to download.", assetCount);
-		int downloadedCount = 0, nextLogCount = 0, logCount = 0;
-		//</logging>
+		log.lifecycle("|-> Downloading assets to {}...", objectsDir);
 		
-		for(String filename : objects.keySet()) {
-			String sha1 = objects.get(filename).getAsJsonObject().get("hash").getAsString();
+		//The index is read a token at a time, straight into the list of downloads, without building a json tree of it.
+		//The sessions are set up here, on this thread, so the download threads don't have to touch the project.
+		ParallelDownloads downloads = new ParallelDownloads(log)
+			.threads(downloadThreads);
+		Set<String> seenHashes = new HashSet<>(); //some files have the same contents; only download them once
+		long[] assetCount = new long[1], downloadBytes = new long[1]; //lambda-mutable
+		String baseUrl = resourcesBaseUrl.endsWith("/") ? resourcesBaseUrl : resourcesBaseUrl + "/";
+		AssetIndex.forEachObject(assetIndexJson, (filename, sha1, size) -> {
+			assetCount[0]++;
+			
 			String sh = sha1.substring(0, 2);
 			String shsha1 = sh + '/' + sha1;
 			
-			Path destFile = legacyLayout ?
-				assetsDownloadDir.resolve(filename) :
-				assetsDownloadDir.resolve(sh).resolve(sha1);
-			
-			if(Files.notExists(destFile)) {
-				newDownloadSession(resourcesBaseUrl + shsha1)
+			Path destFile = objectsDir.resolve(sh).resolve(sha1);
+			if(seenHashes.add(sha1) && Files.notExists(destFile)) {
+				downloads.add("asset " + filename, newDownloadSession(baseUrl + shsha1)
 					.quiet()
 					.dest(destFile)
 					.gzip(true)
 					.etag(false) //we're hopefully not gonna be redownloading these
-					.skipIfExists()
-					.download();
+					.expectSha1(sha1)
+					.skipIfExists());
+				if(size > 0) downloadBytes[0] += size;
 			}
-			
-			//<logging>
-			downloadedCount++;
-			if(downloadedCount >= nextLogCount) {
-				log.lifecycle("\\-> " + logCount * 10 + "%...");
-				logCount++;
-				nextLogCount = logCount * assetCount / 10;
-			}
-			//</logging>
+		});
+		
+		log.lifecycle("|-> Found {} assets, {} of them ({} KB) need downloading.", assetCount[0], downloads.size(), downloadBytes[0] / 1024);
+		if(!downloads.isEmpty()) {
+			long start = System.nanoTime();
+			downloads.downloadAll();
+			log.lifecycle("|-> Downloaded {} assets in {}ms with {} threads.", downloads.size(), (System.nanoTime() - start) / 1_000_000L, downloadThreads);
 		}
+		if(legacyLayout) linkLegacyTree();
 		log.info("|-> Done!");
 		
 		Files.write(finishedFlag, "The presence of this file tells Voldeloom that it's finished downloading assets.".getBytes(StandardCharsets.UTF_8));
 		
 		return this;
 	}
+	
+	private void linkLegacyTree() throws Exception {
+		log.lifecycle("|-> Linking legacy asset tree in {}...", assetsDownloadDir);
+		
+		FileLinker linker = new FileLinker();
+		AssetIndex.forEachObject(assetIndexJson, (filename, sha1, size) -> {
+			Path legacyFile = assetsDownloadDir.resolve(filename);
+			if(Files.notExists(legacyFile)) linker.link(objectsDir.resolve(sha1.substring(0, 2)).resolve(sha1), legacyFile);
+		});
+		
+		log.lifecycle("\\-> Hardlinked {} assets, copied {}.", linker.getLinked(), linker.getCopied());
+	}
 }
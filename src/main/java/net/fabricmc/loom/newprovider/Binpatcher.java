@@ -2,20 +2,22 @@ package net.fabricmc.loom.newprovider;
 
 import java.io.IOException;
 import java.nio.file.FileSystem;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Supplier;
 
-import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import net.fabricmc.loom.LoomGradleExtension;
 import net.fabricmc.loom.mcp.Binpatch;
+import net.fabricmc.loom.util.JarReader;
+import net.fabricmc.loom.util.JarWriter;
 import net.fabricmc.loom.util.Suppliers;
+import net.fabricmc.loom.util.WorkerPool;
 import net.fabricmc.loom.util.ZipUtil;
 import org.gradle.api.Project;
 
@@ -23,28 +25,28 @@ public class Binpatcher extends NewProvider<Binpatcher> {
 	public Binpatcher(Project project, LoomGradleExtension extension) {
 		super(project, extension);
 	}
-
+	
 	private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
 	
 	//inputs
 	private Path client, server, forge;
 	private String binpatchedClientName, binpatchedServerName;
 	
-	public Binpatcher client(Path client) {
+	public Binpatcher client(Path client) throws IOException {
 		this.client = client;
-		props.put("client-path", client.toAbsolutePath().toString());
+		props.putFingerprint("client-sha256", client, fingerprints());
 		return this;
 	}
 	
-	public Binpatcher server(Path server) {
+	public Binpatcher server(Path server) throws IOException {
 		this.server = server;
-		props.put("server-path", server.toAbsolutePath().toString());
+		props.putFingerprint("server-sha256", server, fingerprints());
 		return this;
 	}
 	
-	public Binpatcher forge(Path forge) {
+	public Binpatcher forge(Path forge) throws IOException {
 		this.forge = forge;
-		props.put("forge-path", forge.toAbsolutePath().toString());
+		props.putFingerprint("forge-sha256", forge, fingerprints());
 		return this;
 	}
 	
@@ -83,10 +85,7 @@ public class Binpatcher extends NewProvider<Binpatcher> {
 				log.lifecycle("|-> Yes, this version of Forge does contain binpatches.");
 				props.put("has-binpatches", "yes");
 				props.put("binpatch-algo", "2"); //i changed a decent bit of binpatch code, want to make sure it gets tested
-				binpatchesSupplier = Suppliers.memoize(() -> { //<- memoized!
-					log.lifecycle("\\-> Parsing binpatches...");
-					return new Binpatch.Pack().read(binpatchesPath);
-				});
+				binpatchesSupplier = Suppliers.memoize(() -> readBinpatches(binpatchesPath)); //<- memoized!
 			} else {
 				log.lifecycle("|-> No, this version of Forge does not contain binpatches.");
 				props.put("has-binpatches", "no");
@@ -97,84 +96,156 @@ public class Binpatcher extends NewProvider<Binpatcher> {
 				binpatchedClient = client;
 				binpatchedServer = server;
 			} else {
-				binpatchedClient = getOrCreate(getCacheDir().resolve(props.subst(binpatchedClientName)), dest -> doPatch(dest, true, binpatchesSupplier));
-				binpatchedServer = getOrCreate(getCacheDir().resolve(props.subst(binpatchedServerName)), dest -> doPatch(dest, false, binpatchesSupplier));
+				binpatchedClient = getCacheDir().resolve(props.subst(binpatchedClientName));
+				binpatchedServer = getCacheDir().resolve(props.subst(binpatchedServerName));
+				
+				//Like getOrCreate, but the client and server jars are patched at the same time.
+				List<Callable<Void>> jobs = new ArrayList<>(2);
+				if(needsCreating(binpatchedClient)) jobs.add(() -> doPatch(binpatchedClient, client, binpatchesSupplier.get().client));
+				if(needsCreating(binpatchedServer)) jobs.add(() -> doPatch(binpatchedServer, server, binpatchesSupplier.get().server));
+				
+				if(!jobs.isEmpty()) {
+					binpatchesSupplier.get(); //parse them on this thread, before the jobs race to do it
+					
+					long start = System.nanoTime();
+					WorkerPool.invokeAll(jobs);
+					log.lifecycle("|-> Binpatch success, took {}ms with {} worker threads.", (System.nanoTime() - start) / 1_000_000L, WorkerPool.parallelism());
+					
+					checkCreated(binpatchedClient, this);
+					checkCreated(binpatchedServer, this);
+				}
 			}
 		}
 		
 		return this;
 	}
 	
-	private void doPatch(Path output, boolean client, @Nonnull Supplier<Binpatch.Pack> binpatchesPackSupplier) throws Exception {
-		Binpatch.Pack binpatchesPack = binpatchesPackSupplier.get();
-
-		Binpatch.Patchset patchset = client ? binpatchesPack.client : binpatchesPack.server;
-		Path input = client ? this.client : this.server;
-
-		//populate outputFs with
+	/**
+	 * Decoding binpatches.pack.lzma is slow, so the decoded patches are cached in the user cache, keyed by the hash of the Forge jar.
+	 * On a cache hit, only the index of the cache file is read; the patches themselves are read lazily out of a memory-mapped file.
+	 * <p>
+	 * Not {@code getOrCreate}: a cache that can't be read is decoded again and rewritten, like the binary mappings in
+	 * {@code MappingsWrapper}. The cache isn't deleted in refresh-dependencies mode, only overwritten, and if that fails
+	 * (Windows won't replace a file that's still mapped by an earlier build in this daemon), the freshly decoded patches
+	 * are used anyway.
+	 */
+	private Binpatch.Pack readBinpatches(Path binpatchesPath) {
+		try {
+			Path cachePath = getCacheDir().resolve("binpatches").resolve(fingerprints().fingerprint(forge) + "-v" + Binpatch.Pack.CACHE_VERSION + ".bin");
+			
+			if(!isRefreshDependencies() && Files.exists(cachePath)) {
+				try {
+					log.lifecycle("\\-> Loading decoded binpatches from {}", cachePath);
+					return new Binpatch.Pack().readCache(cachePath);
+				} catch (Exception e) {
+					log.warn("|-> Couldn't read decoded binpatches from {}, decoding binpatches.pack.lzma again: {}", cachePath, e.getMessage());
+				}
+			}
+			
+			log.lifecycle("\\-> Parsing binpatches...");
+			Binpatch.Pack decoded = new Binpatch.Pack().read(binpatchesPath);
+			
+			try {
+				decoded.writeCache(cachePath);
+			} catch (Exception e) {
+				log.warn("|-> Couldn't write decoded binpatches to {}: {}", cachePath, e.getMessage());
+			}
+			
+			return decoded;
+		} catch (Exception e) {
+			throw new RuntimeException("Failed to read binpatches: " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Reads the input jar, applies the binpatches on the worker pool, and hands the results to the output jar from the
+	 * calling thread as they finish. Unpatched entries are copied without being decompressed.
+	 */
+	private Void doPatch(Path output, Path input, Binpatch.Patchset patchset) throws Exception {
+		List<Entry> entries = new ArrayList<>();
+		
+		//populate the output jar with
 		// 1. files that don't have any corresponding patches
 		// 2. patched versions of files that do have a corresponding patch
 		log.lifecycle("\\-> Applying {} modifications to {} (and copying unpatched data)...", patchset.modificationCount, output);
-		try(FileSystem inputFs = ZipUtil.openFs(input); FileSystem outputFs = ZipUtil.createFs(output)) {
-			Files.walkFileTree(inputFs.getPath("/"), new SimpleFileVisitor<Path>() {
-				@Override
-				public FileVisitResult preVisitDirectory(Path vanillaPath, BasicFileAttributes attrs) throws IOException {
-					Files.createDirectories(outputFs.getPath(vanillaPath.toString()));
-					return FileVisitResult.CONTINUE;
-				}
-
-				@Override
-				public FileVisitResult visitFile(Path vanillaPath, BasicFileAttributes attrs) throws IOException {
-					String filename = vanillaPath.toString();
-					Path patchedPath = outputFs.getPath(filename);
-
-					if(filename.endsWith(".class")) {
-						//just guess the vanilla class internal name from its filename (maybe a little lazy)
-						String vanillaClassInternalName = filename.substring(
-							1, //remove leading slash
-							filename.length() - ".class".length() //remove file extension
-						);
-
-						List<Binpatch> patches = patchset.getPatchesFor(vanillaClassInternalName);
-						if(!patches.isEmpty()) {
-							if(patches.size() != 1) {
-								log.lifecycle("Found multiple patches ({}) for '{}'. Huh! That's interesting!", patches.size(), vanillaClassInternalName);
-							}
-
-							log.info("Binpatching {}...", filename);
-							Files.write(patchedPath, applyPatchSequence(Files.readAllBytes(vanillaPath), patches));
-							return FileVisitResult.CONTINUE;
-						}
+		for(JarReader.Entry vanillaEntry : new JarReader(input)) {
+			if(vanillaEntry.isDirectory()) continue;
+			
+			String filename = vanillaEntry.name;
+			Entry entry = new Entry(filename);
+			
+			if(filename.endsWith(".class")) {
+				//just guess the vanilla class internal name from its filename (maybe a little lazy)
+				String vanillaClassInternalName = filename.substring(0, filename.length() - ".class".length());
+				
+				List<Binpatch> patches = patchset.getPatchesFor(vanillaClassInternalName);
+				if(!patches.isEmpty()) {
+					if(patches.size() != 1) {
+						log.lifecycle("Found multiple patches ({}) for '{}'. Huh! That's interesting!", patches.size(), vanillaClassInternalName);
 					}
-
-					Files.copy(vanillaPath, patchedPath);
-					return FileVisitResult.CONTINUE;
+					
+					log.info("Binpatching {}...", filename);
+					entry.patched = WorkerPool.submit(() -> applyPatchSequence(vanillaEntry.bytes(), patches));
 				}
-			});
-
-			//3. files that don't exist in the source jar at all. forge patches them in from thin air.
-			log.lifecycle("\\-> Applying {} additions to {}...", patchset.getAdditions().size(), output);
-			for(Binpatch addPatch : patchset.getAdditions()) {
-				log.info("Binpatching (!existsAtTarget) {}...", addPatch.sourceClassName);
-
-				//guess the destination filename.
-				// (usage of .sourceClassName instead of .targetClassName is correct, we're keeping things unmapped for now.)
-				String[] split = addPatch.sourceClassName.split("\\.");
-				split[split.length - 1] += ".class";
-				Path patchedPath = outputFs.getPath("/", split);
-
-				if(Files.exists(patchedPath)) {
-					log.warn("Binpatch with 'existsAtTarget = false' for a file that does indeed exist at the target, {}", addPatch.originalFilename);
+			}
+			
+			//files without patches are copied over without decompressing them
+			if(entry.patched == null) entry.unpatched = vanillaEntry;
+			entries.add(entry);
+		}
+		
+		//3. files that don't exist in the source jar at all. forge patches them in from thin air.
+		List<Entry> additions = new ArrayList<>();
+		for(Binpatch addPatch : patchset.getAdditions()) {
+			log.info("Binpatching (!existsAtTarget) {}...", addPatch.sourceClassName);
+			
+			//guess the destination filename.
+			// (usage of .sourceClassName instead of .targetClassName is correct, we're keeping things unmapped for now.)
+			Entry entry = new Entry(addPatch.sourceClassName.replace('.', '/') + ".class");
+			entry.patched = WorkerPool.submit(() -> addPatch.apply(EMPTY_BYTE_ARRAY));
+			entry.originalFilename = addPatch.originalFilename;
+			additions.add(entry);
+		}
+		
+		//Everything's been submitted to the pool by now; write it all out from here, as the patches finish
+		try(JarWriter outputJar = new JarWriter(output)) {
+			for(Entry entry : entries) {
+				if(entry.unpatched != null) outputJar.copy(entry.unpatched);
+				else outputJar.write(entry.filename, entry.get());
+			}
+			
+			log.lifecycle("\\-> Applying {} additions to {}...", additions.size(), output);
+			for(Entry entry : additions) {
+				byte[] patched = entry.get(); //join it even if it's not going to be written, in case it failed
+				
+				if(outputJar.has(entry.filename)) {
+					log.warn("Binpatch with 'existsAtTarget = false' for a file that does indeed exist at the target, {}", entry.originalFilename);
 				} else {
-					if(patchedPath.getParent() != null) Files.createDirectories(patchedPath.getParent());
-					Files.write(patchedPath, addPatch.apply(EMPTY_BYTE_ARRAY));
+					outputJar.write(entry.filename, patched);
 				}
 			}
+			
+			outputJar.finish();
 		}
 		
-		log.lifecycle("|-> Binpatch success.");
+		return null;
 	}
-
+	
+	private static class Entry {
+		Entry(String filename) {
+			this.filename = filename;
+		}
+		
+		final String filename;
+		String originalFilename; //for logging
+		JarReader.Entry unpatched;
+		ForkJoinTask<byte[]> patched;
+		
+		byte[] get() throws Exception {
+			return WorkerPool.join(patched);
+		}
+	}
+	
 	private static byte[] applyPatchSequence(byte[] input, List<Binpatch> patches) {
 		for(Binpatch patch : patches) {
 			input = patch.apply(input);
@@ -3,8 +3,9 @@ package net.fabricmc.loom.newprovider;
 import net.fabricmc.loom.Constants;
 import net.fabricmc.loom.LoomGradleExtension;
 import net.fabricmc.loom.RemappedConfigurationEntry;
-import net.fabricmc.loom.mcp.Members;
+import net.fabricmc.loom.mcp.MemberLookup;
 import net.fabricmc.loom.mcp.Srg;
+import net.fabricmc.loom.util.WorkerPool;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.dsl.DependencyHandler;
@@ -12,10 +13,15 @@ import org.gradle.api.artifacts.dsl.DependencyHandler;
 import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 public class DependencyRemapperMcp extends NewProvider<DependencyRemapperMcp> {
 	public DependencyRemapperMcp(Project project, LoomGradleExtension extension) {
@@ -24,7 +30,8 @@ public class DependencyRemapperMcp extends NewProvider<DependencyRemapperMcp> {
 	
 	private String mappingsDepString;
 	private Srg srg;
-	private Members fields, methods;
+	private MemberLookup fields, methods;
+	private boolean constantPoolRenamer;
 	private Iterable<RemappedConfigurationEntry> remappedConfigurationEntries;
 	private String distributionNamingScheme; //TODO weird
 	private final Set<Path> remapClasspath = new LinkedHashSet<>();
@@ -39,16 +46,21 @@ public class DependencyRemapperMcp extends NewProvider<DependencyRemapperMcp> {
 		return this;
 	}
 	
-	public DependencyRemapperMcp fields(Members fields) {
+	public DependencyRemapperMcp fields(MemberLookup fields) {
 		this.fields = fields;
 		return this;
 	}
 	
-	public DependencyRemapperMcp methods(Members methods) {
+	public DependencyRemapperMcp methods(MemberLookup methods) {
 		this.methods = methods;
 		return this;
 	}
 	
+	public DependencyRemapperMcp constantPoolRenamer(boolean constantPoolRenamer) {
+		this.constantPoolRenamer = constantPoolRenamer;
+		return this;
+	}
+	
 	public DependencyRemapperMcp remappedConfigurationEntries(Iterable<RemappedConfigurationEntry> remappedConfigurationEntries) {
 		this.remappedConfigurationEntries = remappedConfigurationEntries;
 		return this;
@@ -72,18 +84,28 @@ public class DependencyRemapperMcp extends NewProvider<DependencyRemapperMcp> {
 		Path remappedModCache = getRemappedModCache();
 		cleanOnRefreshDependencies(remappedModCache);
 		
+		//Resolving configurations and adding dependencies has to happen on this thread. The remapping itself doesn't touch
+		//Gradle, so it's collected here and done after the loop, all at once.
+		Map<Path, Path> toSrg = new LinkedHashMap<>(); //proguarded mod -> where to write its srg-named version
+		Map<Path, Path> toNamed = new LinkedHashMap<>(); //where to write the named mod -> its srg-named version
+		
+		//Jars that already exist are never remapped again, so everything that changes their contents has to be in the name.
+		//The two renamers don't produce byte-identical classes; keep their outputs apart, so flipping the option redoes them.
+		String mappedSuffix = "-mapped-" + mappingsDepString + (constantPoolRenamer ? "-cp" : "") + ".jar";
+		
 		for(RemappedConfigurationEntry entry : remappedConfigurationEntries) {
 			Configuration inputConfig = entry.getInputConfig();
 			Configuration outputConfig = entry.getOutputConfig();
 			
 			for(File unmappedFile : inputConfig.getResolvedConfiguration().getFiles()) {
 				Path unmappedPath = unmappedFile.toPath();
-				Path mappedPath = remappedModCache.resolve(unmappedPath.getFileName().toString() + "-mapped-" + mappingsDepString + ".jar");
+				Path mappedPath = remappedModCache.resolve(unmappedPath.getFileName().toString() + mappedSuffix);
 				
 				log.info("|-> Found a mod dependency at {}", unmappedPath);
 				log.info("\\-> Need to remap to {}", mappedPath);
 				
-				if(Files.notExists(mappedPath)) {
+				//(the same file can be in more than one config)
+				if(Files.notExists(mappedPath) && !toNamed.containsKey(mappedPath)) {
 					//If mods are distributed proguarded, first run them through tiny-remapper to apply srg names
 					Path srgMappedPath;
 					if(distributionNamingScheme.equals(Constants.INTERMEDIATE_NAMING_SCHEME)) {
@@ -91,32 +113,50 @@ public class DependencyRemapperMcp extends NewProvider<DependencyRemapperMcp> {
 						srgMappedPath = unmappedPath;
 					} else if(distributionNamingScheme.equals(Constants.PROGUARDED_NAMING_SCHEME)) {
 						srgMappedPath = remappedModCache.resolve(unmappedPath.getFileName().toString() + "-srg-" + mappingsDepString + ".jar");
-						
 						log.info("\\-> First, mapping to SRG using tiny-remapper at {}", srgMappedPath);
-						
-						//add the other mod dependencies to the remap classpath
-						Set<Path> remapClasspathIncludingOtherMods = new LinkedHashSet<>(remapClasspath);
-						for(File file : getConfigurationByName(Constants.EVERY_UNMAPPED_MOD).getFiles()) {
-							Path p = file.toPath();
-							if(!p.equals(unmappedPath)) remapClasspathIncludingOtherMods.add(p);
-						}
-						
-						RemapperMcp.doIt(unmappedPath, srgMappedPath, srg, log, null, remapClasspathIncludingOtherMods);
+						toSrg.put(unmappedPath, srgMappedPath);
 					} else {
 						throw new IllegalArgumentException("Unknown distributionNamingScheme... i should make than an enum");
 					}
 					
 					//Then apply the fields.csv and methods.csv transformation, just like vanilla
-					log.info("\\-> Applying NaiveRenamer...");
-					NaiveRenamer.doIt(srgMappedPath, mappedPath, log, fields, methods);
+					toNamed.put(mappedPath, srgMappedPath);
 				}
 				
 				//Finally, install this jar to the dependencies (TODO break this out into a separate pass, i'm lazy)
+				//It's fine to add it before the jar exists; nothing resolves the output configs until after this method returns.
 				log.info("\\-> Installing to {} configuration", outputConfig.getName());
 				deps.add(outputConfig.getName(), files(mappedPath));
 			}
 		}
 		
+		if(!toSrg.isEmpty()) {
+			//One tiny-remapper for all the mods, instead of one per mod that has to read every other mod again. The mods
+			//being remapped can see each other already; the other mod dependencies go on the classpath.
+			Set<Path> remapClasspathIncludingOtherMods = new LinkedHashSet<>(remapClasspath);
+			for(File file : getConfigurationByName(Constants.EVERY_UNMAPPED_MOD).getFiles()) {
+				Path p = file.toPath();
+				if(!toSrg.containsKey(p)) remapClasspathIncludingOtherMods.add(p);
+			}
+			
+			RemapperMcp.doItTogether(toSrg, srg, log, remapClasspathIncludingOtherMods);
+		}
+		
+		if(!toNamed.isEmpty()) {
+			//NaiveRenamer doesn't need to see the other jars, so each one gets a job on the worker pool
+			log.lifecycle("\\-> Applying NaiveRenamer to {} mod dependencies with {} worker threads", toNamed.size(), WorkerPool.parallelism());
+			long start = System.nanoTime();
+			
+			List<Callable<Void>> jobs = new ArrayList<>();
+			toNamed.forEach((mappedPath, srgMappedPath) -> jobs.add(() -> {
+				NaiveRenamer.doIt(srgMappedPath, mappedPath, log, fields, methods, constantPoolRenamer);
+				return null;
+			}));
+			WorkerPool.invokeAll(jobs);
+			
+			log.lifecycle("\\-> Renamed mod dependencies in {}ms", (System.nanoTime() - start) / 1_000_000L);
+		}
+		
 		return this;
 	}
 }
@@ -18,6 +18,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 /**
  * Forge auto-downloads dependencies at runtime, but the server is long dead, and I'd like to know about the
@@ -29,6 +33,8 @@ public class ForgeDependencyFetcher extends NewProvider<ForgeDependencyFetcher>
 		super(project, extension);
 	}
 	
+	private static final Pattern SHA1_PATTERN = Pattern.compile("[0-9a-fA-F]{40}");
+	
 	//inputs
 	private Path forgeJar;
 	private String fmlLibrariesBaseUrl;
@@ -52,7 +58,9 @@ public class ForgeDependencyFetcher extends NewProvider<ForgeDependencyFetcher>
 	//outputs
 	private Path libDownloaderDir;
 	
-	private final Collection<String> sniffedLibDownloaderJarNames = new ArrayList<>();
+	private final List<String> sniffedLibDownloaderJarNames = new ArrayList<>();
+	private final List<String> sniffedLibDownloaderHashes = new ArrayList<>();
+	private final Map<String, String> libDownloaderJarHashes = new HashMap<>(); //jar name -> SHA-1, when Forge knows it
 	private final Collection<Path> resolvedLibDownloaderJars = new ArrayList<>();
 	private final Collection<String> sniffedMavenDepNames = new ArrayList<>();
 	
@@ -77,11 +85,13 @@ public class ForgeDependencyFetcher extends NewProvider<ForgeDependencyFetcher>
 					@Override
 					public void visitLdcInsn(Object value) {
 						//This method ldcs library filenames ("argo-2.25.jar") and also their SHA1 hashes as strings.
-						//I differentiate between them by just looking for the .jar suffix, but I guess another way could be doing more thorough static analysis,
-						//and seeing which array the string constants end up being written to.
+						//I differentiate between them by just looking for the .jar suffix or 40 hex digits, but I guess another way could be doing
+						//more thorough static analysis, and seeing which array the string constants end up being written to.
 						if(value instanceof String && ((String) value).endsWith(".jar")) {
 							log.info("|-> Found Forge library: {}", value);
 							sniffedLibDownloaderJarNames.add((String) value);
+						} else if(value instanceof String && SHA1_PATTERN.matcher((String) value).matches()) {
+							sniffedLibDownloaderHashes.add((String) value);
 						}
 					}
 				};
@@ -100,6 +110,15 @@ public class ForgeDependencyFetcher extends NewProvider<ForgeDependencyFetcher>
 				try(InputStream in = Files.newInputStream(coreFmlLibsPath)) {
 					new ClassReader(in).accept(new LibrarySniffingClassVisitor(), ClassReader.SKIP_FRAMES); //just don't need frames
 				}
+				
+				//getLibraries() and getHashes() are two parallel arrays, initialized one after the other
+				if(sniffedLibDownloaderHashes.size() == sniffedLibDownloaderJarNames.size()) {
+					for(int i = 0; i < sniffedLibDownloaderJarNames.size(); i++) {
+						libDownloaderJarHashes.put(sniffedLibDownloaderJarNames.get(i), sniffedLibDownloaderHashes.get(i));
+					}
+				} else {
+					log.warn("!! Found {} Forge libraries but {} hashes in CoreFMLLibraries, not checking their hashes", sniffedLibDownloaderJarNames.size(), sniffedLibDownloaderHashes.size());
+				}
 			} else {
 				log.info("|-> No cpw.mods.fml.relauncher.CoreFMLLibraries class in this Forge jar.");
 			}
@@ -121,7 +140,7 @@ public class ForgeDependencyFetcher extends NewProvider<ForgeDependencyFetcher>
 		}
 		
 		if(bouncycastleCheat) {
-			sniffedLibDownloaderJarNames.add("bcprov-jdk15on-147.jar");
+			sniffedLibDownloaderJarNames.add("bcprov-jdk15on-147.jar"); //no hash for this one, Forge doesn't list it
 			log.info("|-> Cheating and pretending bcprov-jdk15on-147.jar is a Forge library...");
 		}
 		
@@ -147,6 +166,8 @@ public class ForgeDependencyFetcher extends NewProvider<ForgeDependencyFetcher>
 					.dest(dest)
 					.etag(true)
 					.gzip(false)
+					.resumable()
+					.expectSha1(libDownloaderJarHashes.get(lib))
 					.skipIfExists()
 					.download();
 			}
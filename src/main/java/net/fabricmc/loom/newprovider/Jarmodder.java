@@ -2,17 +2,12 @@ package net.fabricmc.loom.newprovider;
 
 import net.fabricmc.loom.LoomGradleExtension;
 import net.fabricmc.loom.util.Check;
-import net.fabricmc.loom.util.ZipUtil;
+import net.fabricmc.loom.util.JarReader;
+import net.fabricmc.loom.util.JarWriter;
 import org.gradle.api.Project;
 
-import java.io.IOException;
-import java.nio.file.FileSystem;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.StandardCopyOption;
-import java.nio.file.attribute.BasicFileAttributes;
 
 /**
  * Pastes one jar on top of another, and remembers to delete META-INF.
@@ -59,52 +54,28 @@ public class Jarmodder extends NewProvider<Jarmodder> {
 			log.lifecycle("|-> Performing jarmod...");
 			Files.createDirectories(dest.getParent());
 			
-			try(FileSystem baseFs = ZipUtil.openFs(base); FileSystem overlayFs = ZipUtil.openFs(overlay); FileSystem patchedFs = ZipUtil.createFs(dest)) {
+			//Neither jar gets decompressed; entries are copied over in their compressed form
+			JarReader baseJar = new JarReader(base), overlayJar = new JarReader(overlay);
+			try(JarWriter patched = new JarWriter(dest)) {
 				log.lifecycle("|-> Copying base into patched jar...");
-				Files.walkFileTree(baseFs.getPath("/"), new SimpleFileVisitor<Path>() {
-					@Override
-					public FileVisitResult preVisitDirectory(Path sourceDir, BasicFileAttributes attrs) throws IOException {
-						if(sourceDir.endsWith("META-INF")) {
-							return FileVisitResult.SKIP_SUBTREE;
-						} else {
-							Path destDir = patchedFs.getPath(sourceDir.toString());
-							Files.createDirectories(destDir);
-							return FileVisitResult.CONTINUE;
-						}
-					}
-					
-					@Override
-					public FileVisitResult visitFile(Path sourcePath, BasicFileAttributes attrs) throws IOException {
-						Path destPath = patchedFs.getPath(sourcePath.toString());
-						Files.copy(sourcePath, destPath);
-						return FileVisitResult.CONTINUE;
-					}
-				});
+				for(JarReader.Entry entry : baseJar) {
+					if(entry.isDirectory() || isInMetaInf(entry.name)) continue;
+					patched.copy(entry);
+				}
 				
 				log.lifecycle("|-> Copying patch over top...");
-				Files.walkFileTree(overlayFs.getPath("/"), new SimpleFileVisitor<Path>() {
-					@Override
-					public FileVisitResult preVisitDirectory(Path sourceDir, BasicFileAttributes attrs) throws IOException {
-						if(sourceDir.endsWith("META-INF")) {
-							return FileVisitResult.SKIP_SUBTREE;
-						} else {
-							Path destDir = patchedFs.getPath(sourceDir.toString());
-							Files.createDirectories(destDir);
-							return FileVisitResult.CONTINUE;
-						}
-					}
+				for(JarReader.Entry entry : overlayJar) {
+					if(entry.isDirectory() || isInMetaInf(entry.name)) continue;
+					
+					//TODO: move this OUT, not into the general jarmods system
+					// If this file is missing, Forge will assume it's in a dev environment and not do runtime binpatching
+					if(entry.name.endsWith("binpatches.pack.lzma")) continue;
 					
-					@Override
-					public FileVisitResult visitFile(Path sourcePath, BasicFileAttributes attrs) throws IOException {
-						//TODO: move this OUT, not into the general jarmods system
-						// If this file is missing, Forge will assume it's in a dev environment and not do runtime binpatching
-						if(sourcePath.toString().endsWith("binpatches.pack.lzma")) return FileVisitResult.CONTINUE;
-						
-						Path destPath = patchedFs.getPath(sourcePath.toString());
-						Files.copy(sourcePath, destPath, StandardCopyOption.REPLACE_EXISTING);
-						return FileVisitResult.CONTINUE;
-					}
-				});
+					//(replaces the file from the base jar, if there is one)
+					patched.copy(entry);
+				}
+				
+				patched.finish();
 			}
 			
 			log.lifecycle("|-> Deleting META-INF... (just kidding, i didn't copy it in the first place)");
@@ -114,4 +85,8 @@ public class Jarmodder extends NewProvider<Jarmodder> {
 		
 		return this;
 	}
+	
+	private static boolean isInMetaInf(String name) {
+		return name.startsWith("META-INF/") || name.contains("/META-INF/");
+	}
 }
@@ -1,10 +1,13 @@
 package net.fabricmc.loom.newprovider;
 
 import net.fabricmc.loom.LoomGradleExtension;
+import net.fabricmc.loom.WellKnownLocations;
 import net.fabricmc.loom.mcp.JarScanData;
 import net.fabricmc.loom.mcp.McpMappings;
+import net.fabricmc.loom.mcp.McpMappingsBinary;
 import net.fabricmc.loom.mcp.McpMappingsBuilder;
-import net.fabricmc.loom.util.Checksum;
+import net.fabricmc.loom.mcp.McpMappingsCache;
+import net.fabricmc.loom.util.FileFingerprints;
 import net.fabricmc.loom.util.Props;
 import net.fabricmc.loom.util.StringInterner;
 import net.fabricmc.loom.util.ZipUtil;
@@ -12,40 +15,117 @@ import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.logging.Logger;
 
+import javax.annotation.Nullable;
 import java.nio.file.FileSystem;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.MessageDigest;
 
 /**
  * Loads and parses MCP mappings from a file.
+ * <p>
+ * The constructor only resolves the mappings configuration, so it has to be called on the configuring thread.
+ * {@code parse} and {@code build} don't touch Gradle and can be called from any thread, and {@code parse} doesn't
+ * need the scan data, so it can run while the jar to scan is still being created.
+ * <p>
+ * Built mappings are kept in {@link McpMappingsCache}, so on a warm Gradle daemon {@code parse} and {@code build}
+ * usually don't have to do anything.
  */
 public class MappingsWrapper extends ResolvedConfigElementWrapper {
-	public MappingsWrapper(Project project, LoomGradleExtension ext, Configuration config, Path scanJar) throws Exception {
+	public MappingsWrapper(Project project, LoomGradleExtension ext, Configuration config) throws Exception {
 		super(project, config);
-		Logger log = project.getLogger();
+		this.log = project.getLogger();
+		this.fingerprints = new FileFingerprints(WellKnownLocations.getUserCache(project).resolve("fingerprints"));
+		this.mappingsHash = fingerprints.fingerprint(getPath());
+		this.binaryPath = WellKnownLocations.getMappingsBinaryCache(project).resolve(mappingsHash + ".bin");
 		
 		log.lifecycle("] mappings source: {}", getPath());
+	}
+	
+	private final Logger log;
+	private final FileFingerprints fingerprints;
+	private final String mappingsHash;
+	private final Path binaryPath;
+	private McpMappingsBuilder mappingsBuilder;
+	
+	//set by build()
+	public McpMappings mappings;
+	public Props props;
+	
+	public MappingsWrapper parse() throws Exception {
+		if(McpMappingsCache.hasAnyFor(mappingsHash)) {
+			log.info("|-> Mappings were already parsed by an earlier build in this Gradle daemon.");
+			return this;
+		}
+		
+		doParse();
+		return this;
+	}
+	
+	private void doParse() throws Exception {
+		if(Files.exists(binaryPath)) {
+			try {
+				log.info("|-> Loading mappings from {}...", binaryPath);
+				mappingsBuilder = McpMappingsBinary.read(binaryPath);
+				return;
+			} catch (Exception e) {
+				log.warn("|-> Couldn't read binary mappings from {}, parsing the zip instead: {}", binaryPath, e.getMessage());
+			}
+		}
 		
 		log.info("|-> Loading mappings...");
-		McpMappingsBuilder mappingsBuilder = new McpMappingsBuilder();
+		mappingsBuilder = new McpMappingsBuilder();
 		StringInterner mem = new StringInterner();
 		try(FileSystem mcpZipFs = ZipUtil.openFs(getPath())) {
 			mappingsBuilder.importEverythingFromZip(mcpZipFs, mem);
 		}
 		
-		log.info("|-> Gleaning inner-class info from '{}'...", scanJar);
-		mappingsBuilder.augment(new JarScanData().scan(scanJar));
+		try {
+			McpMappingsBinary.write(binaryPath, mappingsBuilder);
+		} catch (Exception e) {
+			log.warn("|-> Couldn't write binary mappings to {}: {}", binaryPath, e.getMessage());
+		}
+	}
+	
+	/**
+	 * @return whether mappings built against this jar are in the cache, i.e. whether scanning the jar can be skipped
+	 */
+	public boolean isCached(Path scannedJar) throws Exception {
+		return McpMappingsCache.get(mappingsHash, fingerprints.fingerprint(scannedJar)) != null;
+	}
+	
+	/**
+	 * @param scannedJar the jar the mappings are going to be applied to
+	 * @param scanData inner-class info gleaned from {@code scannedJar}, or {@code null} to scan it here if needed
+	 */
+	public MappingsWrapper build(Path scannedJar, @Nullable JarScanData scanData) throws Exception {
+		String scannedJarHash = fingerprints.fingerprint(scannedJar);
 		
-		log.info("|-> Building...");
-		mappings = mappingsBuilder.build();
+		mappings = McpMappingsCache.get(mappingsHash, scannedJarHash);
+		if(mappings != null) {
+			log.info("|-> Using mappings cached in this Gradle daemon.");
+			mappingsBuilder = null;
+		} else {
+			//parse() might have skipped parsing, and the cached mappings could have been garbage-collected since
+			if(mappingsBuilder == null) doParse();
+			
+			if(scanData == null) {
+				log.info("|-> Gleaning inner-class info from '{}'...", scannedJar);
+				scanData = new JarScanData().scan(scannedJar);
+			}
+			
+			mappingsBuilder.augment(scanData);
+			
+			log.info("|-> Building...");
+			mappings = mappingsBuilder.build();
+			mappingsBuilder = null;
+			
+			McpMappingsCache.put(mappingsHash, scannedJarHash, mappings);
+		}
 		
-		MessageDigest sha = Checksum.SHA256.get();
-		Checksum.feedFileToHasher(getPath(), sha);
 		this.props = new Props()
-			.put("mappings-hash", Checksum.toHexString(sha.digest()))
+			.put("mappings-hash", mappingsHash)
 			.put("v", "2");
+		
+		return this;
 	}
-	
-	public final McpMappings mappings;
-	public final Props props;
 }
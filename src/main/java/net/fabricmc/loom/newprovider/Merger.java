@@ -2,6 +2,7 @@ package net.fabricmc.loom.newprovider;
 
 import net.fabricmc.loom.LoomGradleExtension;
 import net.fabricmc.loom.util.Check;
+import net.fabricmc.loom.util.JarWriter;
 import net.fabricmc.loom.util.ZipUtil;
 import net.fabricmc.loom.yoinked.stitch.ClassMergerCooler;
 import net.fabricmc.loom.yoinked.stitch.JarMergerCooler;
@@ -56,12 +57,13 @@ public class Merger extends NewProvider<Merger> {
 			
 			log.lifecycle("|-> Target does not exist. Merging with JarMergerCooler to {}", dest);
 			
-			try(FileSystem clientFs = ZipUtil.openFs(client); FileSystem serverFs = ZipUtil.openFs(server); FileSystem destFs = ZipUtil.createFs(dest);
-			    JarMergerCooler jm = new JarMergerCooler(clientFs, serverFs, destFs)) {
+			try(FileSystem clientFs = ZipUtil.openFs(client); FileSystem serverFs = ZipUtil.openFs(server); JarWriter destJar = new JarWriter(dest);
+			    JarMergerCooler jm = new JarMergerCooler(clientFs, serverFs, destJar)) {
 				//jm.enableSyntheticParamsOffset();
 				jm.merge(new ClassMergerCooler()
 					.sideEnum("Lcpw/mods/fml/relauncher/Side;")
 					.sideDescriptorAnnotation("Lcpw/mods/fml/relauncher/SideOnly;"));
+				destJar.finish();
 			}
 			
 			log.lifecycle("|-> Merged.");
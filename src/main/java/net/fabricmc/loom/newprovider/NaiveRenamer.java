@@ -1,25 +1,32 @@
 package net.fabricmc.loom.newprovider;
 
 import net.fabricmc.loom.LoomGradleExtension;
-import net.fabricmc.loom.mcp.Members;
+import net.fabricmc.loom.LoomGradlePlugin;
+import net.fabricmc.loom.mcp.ConstantPoolSrgRenamer;
+import net.fabricmc.loom.mcp.ForgeAccessTransformerSet;
+import net.fabricmc.loom.mcp.MemberLookup;
 import net.fabricmc.loom.mcp.NaiveAsmSrgRenamer;
 import net.fabricmc.loom.mcp.NaiveTextualSrgRenamer;
-import net.fabricmc.loom.util.ZipUtil;
+import net.fabricmc.loom.util.JarReader;
+import net.fabricmc.loom.util.JarWriter;
+import net.fabricmc.loom.util.WorkerPool;
+import net.fabricmc.tinyremapper.TinyRemapper;
 import org.gradle.api.Project;
 import org.gradle.api.logging.Logger;
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 
-import java.io.BufferedInputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import javax.annotation.Nullable;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.FileSystem;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
 
 public class NaiveRenamer extends NewProvider<NaiveRenamer> {
 	public NaiveRenamer(Project project, LoomGradleExtension extension) {
@@ -29,7 +36,10 @@ public class NaiveRenamer extends NewProvider<NaiveRenamer> {
 	//input
 	private Path input;
 	private String outputDirectory, outputFilename;
-	private Members fields, methods;
+	private MemberLookup fields, methods;
+	private boolean constantPoolRenamer;
+	private RemapperMcp fusedRemapper;
+	private AccessTransformer fusedTransformer;
 	
 	public NaiveRenamer input(Path input) {
 		this.input = input;
@@ -42,16 +52,39 @@ public class NaiveRenamer extends NewProvider<NaiveRenamer> {
 		return this;
 	}
 	
-	public NaiveRenamer fields(Members fields) {
+	public NaiveRenamer fields(MemberLookup fields) {
 		this.fields = fields;
 		return this;
 	}
 	
-	public NaiveRenamer methods(Members methods) {
+	public NaiveRenamer methods(MemberLookup methods) {
 		this.methods = methods;
 		return this;
 	}
 	
+	/**
+	 * Rename classes by editing their constant pools, instead of with ASM. See {@link ConstantPoolSrgRenamer}.
+	 */
+	public NaiveRenamer constantPoolRenamer(boolean constantPoolRenamer) {
+		this.constantPoolRenamer = constantPoolRenamer;
+		if(constantPoolRenamer) props.put("renamer", "constant-pool"); //the output isn't byte-for-byte the same
+		return this;
+	}
+	
+	/**
+	 * Fused mode: instead of renaming an already-remapped jar, do the remapper's job too (and optionally the access transformer's,
+	 * for mapped ATs), passing each class straight from tiny-remapper to the renamer without writing any intermediate jars.
+	 * The providers should be fully configured, but {@code remap()} and {@code transform()} don't need to be called.
+	 * <p>
+	 * If an {@code input} is set as well, the regular renamer runs, and the fused pipeline runs afterwards into a separate
+	 * jar that's compared against the regular one. That's for debugging.
+	 */
+	public NaiveRenamer fuse(RemapperMcp remapper, @Nullable AccessTransformer mappedTransformer) {
+		this.fusedRemapper = remapper;
+		this.fusedTransformer = mappedTransformer;
+		return this;
+	}
+	
 	//output
 	private Path output;
 	
@@ -61,50 +94,155 @@ public class NaiveRenamer extends NewProvider<NaiveRenamer> {
 	
 	public NaiveRenamer rename() throws Exception {
 		//kludge: putting it next to the output of RemapperMcp
-		output = getOrCreate(getCacheDir().resolve("mapped").resolve(outputDirectory).resolve(props.subst(outputFilename)), dest -> {
+		Path outputPath = getCacheDir().resolve("mapped").resolve(outputDirectory).resolve(props.subst(outputFilename));
+		
+		if(fusedRemapper != null && input == null) {
+			output = getOrCreate(outputPath, dest -> {
+				Files.createDirectories(dest.getParent());
+				doItFused(dest, log, fields, methods, constantPoolRenamer, fusedRemapper, fusedTransformer);
+			});
+			
+			return this;
+		}
+		
+		output = getOrCreate(outputPath, dest -> {
 			Files.createDirectories(dest.getParent());
-			doIt(input, dest, log, fields, methods);
+			doIt(input, dest, log, fields, methods, constantPoolRenamer);
 		});
 		
+		if(fusedRemapper != null) {
+			Path debugOutput = LoomGradlePlugin.replaceExtension(output, "-fused-debug.jar");
+			Files.deleteIfExists(debugOutput);
+			
+			log.lifecycle("!! Writing fused-pipeline debug jar to {}", debugOutput);
+			doItFused(debugOutput, log, fields, methods, constantPoolRenamer, fusedRemapper, fusedTransformer);
+			compareJars(output, debugOutput);
+		}
+		
 		return this;
 	}
 	
-	public static void doIt(Path input, Path output, Logger log, Members fields, Members methods) throws Exception {
+	public static void doIt(Path input, Path output, Logger log, MemberLookup fields, MemberLookup methods, boolean constantPoolRenamer) throws Exception {
 		log.warn("NaiveRenamer.doIt; input: {}, output: {}", input, output);
 		
-		try(FileSystem srcFs = ZipUtil.openFs(input); FileSystem dstFs = ZipUtil.createFs(output)) {
-			Files.walkFileTree(srcFs.getPath("/"), new SimpleFileVisitor<Path>() {
-				@Override
-				public FileVisitResult preVisitDirectory(Path srcDir, BasicFileAttributes attrs) throws IOException {
-					Files.createDirectories(dstFs.getPath(srcDir.toString()));
-					return FileVisitResult.CONTINUE;
-				}
+		long start = System.nanoTime();
+		try(JarWriter dst = new JarWriter(output)) {
+			//Each entry is renamed on the worker pool. The lookups are only read from, and every job makes its own renamers
+			//(they keep scratch buffers), so nothing is shared between jobs except the JarWriter, which is thread-safe.
+			List<Callable<Void>> jobs = new ArrayList<>();
+			for(JarReader.Entry entry : new JarReader(input)) {
+				if(entry.isDirectory()) continue;
 				
-				@Override
-				public FileVisitResult visitFile(Path srcPath, BasicFileAttributes attrs) throws IOException {
-					Path dstPath = dstFs.getPath(srcPath.toString());
-					String dstPathString = dstPath.toString();
-					
-					if(dstPathString.endsWith(".class")) {
-						try(InputStream srcReader = new BufferedInputStream(Files.newInputStream(srcPath))) {
-							ClassReader srcClassReader = new ClassReader(srcReader);
-							ClassWriter dstClassWriter = new ClassWriter(0);
-							srcClassReader.accept(new NaiveAsmSrgRenamer(dstClassWriter, fields, methods), 0);
-							Files.write(dstPath, dstClassWriter.toByteArray());
-						}
-					} else if(dstPathString.endsWith(".java")) {
-						String src = new String(Files.readAllBytes(srcPath), StandardCharsets.UTF_8);
-						String dst = new NaiveTextualSrgRenamer(fields, methods).rename(src);
-						Files.write(dstPath, dst.getBytes(StandardCharsets.UTF_8));
+				jobs.add(() -> {
+					if(entry.name.endsWith(".class")) {
+						dst.write(entry.name, renameClass(entry.bytes(), null, fields, methods, constantPoolRenamer));
 					} else {
-						Files.copy(srcPath, dstPath);
+						renameNonClass(entry, dst, fields, methods);
 					}
-					
-					return FileVisitResult.CONTINUE;
-				}
+					return null;
+				});
+			}
+			
+			WorkerPool.invokeAll(jobs);
+			dst.finish();
+		}
+		
+		log.info("|-> Done, took {}ms.", (System.nanoTime() - start) / 1_000_000L);
+	}
+	
+	/**
+	 * Does the work of RemapperMcp, AccessTransformer (if {@code mappedTransformer} is not null), and NaiveRenamer at once.
+	 * <p>
+	 * Tiny-remapper hands each remapped class straight to {@code renameClass}, so the class is parsed and written once more
+	 * instead of once per step, and nothing gets zipped and unzipped in between. Tiny-remapper has to run first and keeps
+	 * its own ClassReader: it needs the whole jar in front of it to build the class hierarchy, and unmapped (1.6) ATs
+	 * have to be applied before it reads the jar, so those still go through AccessTransformer beforehand.
+	 * <p>
+	 * The output is byte-for-byte the same as running the steps one at a time.
+	 */
+	public static void doItFused(Path output, Logger log, MemberLookup fields, MemberLookup methods, boolean constantPoolRenamer, RemapperMcp remapperMcp, @Nullable AccessTransformer mappedTransformer) throws Exception {
+		Path input = remapperMcp.getInputJar();
+		log.lifecycle("\\-> Remapping{} and renaming {} in one pass", mappedTransformer != null ? ", access-transforming," : "", input);
+		
+		ForgeAccessTransformerSet ats = mappedTransformer == null ? null : mappedTransformer.readAccessTransformers();
+		Set<String> deletedPrefixes = remapperMcp.getDeletedPrefixes();
+		
+		TinyRemapper remapper = RemapperMcp.newRemapper(remapperMcp.getSrg());
+		try(JarWriter dst = new JarWriter(output)) {
+			//tiny-remapper copies non-class files unchanged, then NaiveRenamer has a go at them
+			for(JarReader.Entry entry : new JarReader(input)) {
+				if(entry.isDirectory() || entry.name.endsWith(".class")) continue;
+				renameNonClass(entry, dst, fields, methods);
+			}
+			
+			remapper.readClassPath(remapperMcp.getRemapClasspath().toArray(new Path[0]));
+			remapper.readInputs(input);
+			
+			//called from tiny-remapper's threads
+			remapper.apply((className, remapped) -> {
+				if(deletedPrefixes != null && deletedPrefixes.contains(className.split("/", 2)[0])) return;
+				dst.write(className + ".class", renameClass(remapped, ats, fields, methods, constantPoolRenamer));
 			});
+			
+			dst.finish();
+		} finally {
+			remapper.finish();
+		}
+		
+		if(ats != null) mappedTransformer.reportUnusedTransformers(ats);
+		
+		log.lifecycle("\\-> Fused remap success! :)");
+	}
+	
+	private static byte[] renameClass(byte[] classBytes, @Nullable ForgeAccessTransformerSet ats, MemberLookup fields, MemberLookup methods, boolean constantPoolRenamer) {
+		//the constant pool renamer can't access-transform, so only use it for classes without ATs
+		if(constantPoolRenamer && (ats == null || !ats.touchesClass(new ClassReader(classBytes).getClassName()))) {
+			byte[] renamed = new ConstantPoolSrgRenamer(fields, methods).rename(classBytes);
+			if(renamed != null) return renamed;
+			//else it's a class file it doesn't understand; fall back to ASM
+		}
+		
+		ClassReader srcClassReader = new ClassReader(classBytes);
+		ClassWriter dstClassWriter = new ClassWriter(0);
+		
+		ClassVisitor visitor = new NaiveAsmSrgRenamer(dstClassWriter, fields, methods);
+		if(ats != null && ats.touchesClass(srcClassReader.getClassName())) visitor = ats.new AccessTransformingClassVisitor(visitor);
+		
+		srcClassReader.accept(visitor, 0);
+		return dstClassWriter.toByteArray();
+	}
+	
+	private static void renameNonClass(JarReader.Entry entry, JarWriter dst, MemberLookup fields, MemberLookup methods) throws Exception {
+		if(entry.name.endsWith(".java")) {
+			String src = new String(entry.bytes(), StandardCharsets.UTF_8);
+			String renamed = new NaiveTextualSrgRenamer(fields, methods).rename(src);
+			dst.write(entry.name, renamed.getBytes(StandardCharsets.UTF_8));
+		} else {
+			dst.copy(entry);
+		}
+	}
+	
+	private void compareJars(Path staged, Path fused) throws Exception {
+		JarReader stagedJar = new JarReader(staged);
+		JarReader fusedJar = new JarReader(fused);
+		
+		Set<String> names = new TreeSet<>();
+		stagedJar.forEach(entry -> names.add(entry.name));
+		fusedJar.forEach(entry -> names.add(entry.name));
+		
+		int mismatches = 0;
+		for(String name : names) {
+			JarReader.Entry a = stagedJar.get(name), b = fusedJar.get(name);
+			if(a == null || b == null) {
+				log.warn("!! {} only exists in the {} jar", name, a == null ? "fused" : "staged");
+				mismatches++;
+			} else if(!Arrays.equals(a.bytes(), b.bytes())) {
+				log.warn("!! {} differs between the staged and fused jars", name);
+				mismatches++;
+			}
 		}
 		
-		log.info("|-> Done.");
+		if(mismatches == 0) log.lifecycle("!! Fused-pipeline debug jar matches the staged one ({} entries).", names.size());
+		else log.warn("!! Fused-pipeline debug jar has {} mismatched entries out of {}.", mismatches, names.size());
 	}
 }
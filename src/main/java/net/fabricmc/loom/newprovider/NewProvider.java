@@ -1,20 +1,30 @@
 package net.fabricmc.loom.newprovider;
 
 import net.fabricmc.loom.LoomGradleExtension;
-import net.fabricmc.loom.LoomGradlePlugin;
 import net.fabricmc.loom.ProviderGraph;
 import net.fabricmc.loom.WellKnownLocations;
 import net.fabricmc.loom.util.DownloadSession;
+import net.fabricmc.loom.util.FileFingerprints;
 import net.fabricmc.loom.util.Props;
+import net.fabricmc.loom.util.TaskGraph;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.logging.Logger;
 
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
 
 /**
  * Basically "provider" is a catchall term for "something that has to run in afterEvaluate, because doing it
@@ -27,24 +37,40 @@ import java.util.Collection;
  * <p>
  * it's "New" provider, because this project used to have an old provider system, and it sucked real ass, so
  * in like 5 hours of Hyper focus i erased all of it and replaced it with this much better one :3
+ * <p>
+ * Providers are constructed on the configuring thread, and everything they need from the project is read in the
+ * constructor, so the steps themselves can run on worker threads without touching Gradle. The exceptions are the few
+ * helpers at the bottom of this class, which are only for providers whose jobs run on the configuring thread.
+ * <p>
+ * A provider declares which jobs' results it reads with {@code input}; see {@link TaskGraph.Subject}.
  * 
  * @param <SELF> curiously recurring template pattern
  * @see ProviderGraph for where the providers are connected together :3
  */
-public abstract class NewProvider<SELF extends NewProvider<SELF>> {
+public abstract class NewProvider<SELF extends NewProvider<SELF>> implements TaskGraph.Subject {
 	public NewProvider(Project project, LoomGradleExtension extension) {
 		this.project = project;
-		this.extension = extension;
 		
 		this.log = project.getLogger();
+		this.offline = extension.offline;
+		this.refreshDependencies = extension.refreshDependencies;
+		this.userCache = WellKnownLocations.getUserCache(project);
 	}
 	
+	//only for the configuring-thread helpers at the bottom
 	private final Project project;
-	private final LoomGradleExtension extension;
 	
 	protected final Logger log;
+	private final boolean offline;
+	private final boolean refreshDependencies;
+	private final Path userCache;
+	
 	public final Props props = new Props();
 	
+	private final List<Input<?>> inputs = new ArrayList<>();
+	private final Deque<Integer> inputBatchEnds = new ArrayDeque<>();
+	private int inputsTaken = 0, inputsApplied = 0;
+	
 	//simply for convenience, can be called with a heterogenous array of NewProviders and Props
 	@SuppressWarnings("unchecked")
 	public SELF superProps(Object... others) {
@@ -56,6 +82,35 @@ public abstract class NewProvider<SELF extends NewProvider<SELF>> {
 		return (SELF) this;
 	}
 	
+	/**
+	 * Declares that this provider reads the result of {@code node}. The next job declared on this provider depends on
+	 * {@code node}, and right before that job runs, {@code setter} is called with the provider and the result.
+	 * Inputs are applied in the order they're declared, so setters can call {@code superProps}, too.
+	 */
+	@SuppressWarnings("unchecked")
+	public final <T> SELF input(TaskGraph.Node<T> node, InputSetter<SELF, ? super T> setter) {
+		inputs.add(new Input<>(node, setter));
+		return (SELF) this;
+	}
+	
+	@Override
+	public final List<TaskGraph.Node<?>> takeInputNodes() {
+		List<TaskGraph.Node<?>> nodes = new ArrayList<>();
+		for(Input<?> input : inputs.subList(inputsTaken, inputs.size())) nodes.add(input.node);
+		
+		inputsTaken = inputs.size();
+		inputBatchEnds.add(inputsTaken);
+		return nodes;
+	}
+	
+	@Override
+	@SuppressWarnings("unchecked")
+	public final void applyInputs() throws Exception {
+		//jobs on the same provider run one at a time, in the order they were declared, so this is the batch for this job
+		int end = inputBatchEnds.remove();
+		for(; inputsApplied < end; inputsApplied++) inputs.get(inputsApplied).apply((SELF) this);
+	}
+	
 	/**
 	 * If refresh-dependencies mode is enabled, deletes the file or directory at {@code path}.<br>
 	 * Then, if {@code path} does not exist, the {@code fileCreator} is invoked with the path as an argument.
@@ -63,30 +118,63 @@ public abstract class NewProvider<SELF extends NewProvider<SELF>> {
 	 * Returns {@code path}.
 	 */
 	protected final Path getOrCreate(Path path, ThrowyConsumer<Path> fileCreator) throws Exception {
-		if(extension.refreshDependencies) {
-			project.getLogger().warn("Ignoring " + path + " because refresh-dependencies mode is set");
-			LoomGradlePlugin.delete(project, path);
+		if(needsCreating(path)) {
+			fileCreator.accept(path);
+			checkCreated(path, fileCreator);
+		}
+		
+		return path;
+	}
+	
+	/**
+	 * The first half of {@code getOrCreate}, for providers that want to create several files at once.<br>
+	 * If refresh-dependencies mode is enabled, deletes the file or directory at {@code path}.
+	 * Then returns {@code true} if there's nothing at {@code path}, i.e. the caller should create it.
+	 * <p>
+	 * After creating the file, pass it to {@code checkCreated}.
+	 */
+	protected final boolean needsCreating(Path path) throws IOException {
+		if(refreshDependencies) {
+			log.warn("Ignoring " + path + " because refresh-dependencies mode is set");
+			delete(path);
 		}
 		
 		if(Files.notExists(path)) {
-			project.getLogger().info("Creating file at " + path);
-			
-			fileCreator.accept(path);
-			//check that the file creator actually did create the file, and it's not empty
-			if(Files.notExists(path)) throw new IllegalStateException("Runnable " + fileCreator + " should have created a file at " + path);
-			if(!Files.isDirectory(path) && Files.size(path) == 0) throw new IllegalStateException("Runnable " + fileCreator + " created a zero-byte file at " + path);
-			
-			//TODO: write props to a file in user-readable form, just for debugging?
+			log.info("Creating file at " + path);
+			return true;
 		} else {
-			project.getLogger().info("Cache hit at " + path);
+			log.info("Cache hit at " + path);
+			return false;
 		}
+	}
+	
+	/**
+	 * The second half of {@code getOrCreate}. Checks that {@code fileCreator} actually did create the file, and it's not empty.
+	 */
+	protected final void checkCreated(Path path, Object fileCreator) throws Exception {
+		if(Files.notExists(path)) throw new IllegalStateException("Runnable " + fileCreator + " should have created a file at " + path);
+		if(!Files.isDirectory(path) && Files.size(path) == 0) throw new IllegalStateException("Runnable " + fileCreator + " created a zero-byte file at " + path);
 		
-		return path;
+		//TODO: write props to a file in user-readable form, just for debugging?
+	}
+	
+	/**
+	 * For providers that manage a cache file themselves, instead of with {@code getOrCreate}.
+	 */
+	protected final boolean isRefreshDependencies() {
+		return refreshDependencies;
 	}
 	
 	//TODO: reimpl projectmappiness? Shouldn't be too hard, read off the Props
 	public final Path getCacheDir() {
-		return WellKnownLocations.getUserCache(project);
+		return userCache;
+	}
+	
+	/**
+	 * For {@code props.putFingerprint}; remembers file hashes in the user cache.
+	 */
+	protected final FileFingerprints fingerprints() {
+		return new FileFingerprints(getCacheDir().resolve("fingerprints"));
 	}
 	
 	/**
@@ -95,7 +183,7 @@ public abstract class NewProvider<SELF extends NewProvider<SELF>> {
 	 * @deprecated Use the getOrCreate method instead if possible  
 	 */
 	@Deprecated
-	protected final void cleanOnRefreshDependencies(Path... paths) {
+	protected final void cleanOnRefreshDependencies(Path... paths) throws IOException {
 		cleanOnRefreshDependencies(Arrays.asList(paths));
 	}
 	
@@ -105,20 +193,42 @@ public abstract class NewProvider<SELF extends NewProvider<SELF>> {
 	 * @deprecated Use the getOrCreate method instead 
 	 */
 	@Deprecated
-	protected final void cleanOnRefreshDependencies(Collection<Path> paths) {
-		if(extension.refreshDependencies) {
+	protected final void cleanOnRefreshDependencies(Collection<Path> paths) throws IOException {
+		if(refreshDependencies) {
 			log.lifecycle("!! Deleting outputs of " + getClass().getSimpleName() + " because of refreshDependencies mode");
-			LoomGradlePlugin.delete(project, paths);
+			for(Path path : paths) delete(path);
 		}
 	}
 	
-	//Trying to keep the provider stuff pretty separate from most Gradle wizardry, but I do need to poke a few holes:
-	protected final Configuration getConfigurationByName(String name) {
-		return project.getConfigurations().getByName(name);
+	protected final DownloadSession newDownloadSession(String url) {
+		return new DownloadSession(log, offline, refreshDependencies).url(url);
 	}
 	
-	protected final DownloadSession newDownloadSession(String url) {
-		return new DownloadSession(url, project);
+	//Like project.delete: doesn't follow symlinks out of the directory, and doesn't mind if the file's already gone.
+	private void delete(Path path) throws IOException {
+		if(Files.notExists(path, LinkOption.NOFOLLOW_LINKS)) return;
+		
+		log.lifecycle("Deleting " + path);
+		Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+				if(exc != null) throw exc;
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+	
+	//Trying to keep the provider stuff pretty separate from most Gradle wizardry, but I do need to poke a few holes.
+	//These touch the project, so they're only for providers whose jobs run on the configuring thread:
+	protected final Configuration getConfigurationByName(String name) {
+		return project.getConfigurations().getByName(name);
 	}
 	
 	protected final Path getRemappedModCache() {
@@ -134,4 +244,22 @@ public abstract class NewProvider<SELF extends NewProvider<SELF>> {
 	public interface ThrowyConsumer<T> {
 		void accept(T thing) throws Exception;
 	}
+	
+	public interface InputSetter<SELF, T> {
+		void accept(SELF provider, T value) throws Exception;
+	}
+	
+	private final class Input<T> {
+		Input(TaskGraph.Node<T> node, InputSetter<SELF, ? super T> setter) {
+			this.node = node;
+			this.setter = setter;
+		}
+		
+		final TaskGraph.Node<T> node;
+		final InputSetter<SELF, ? super T> setter;
+		
+		void apply(SELF provider) throws Exception {
+			setter.accept(provider, node.get());
+		}
+	}
 }
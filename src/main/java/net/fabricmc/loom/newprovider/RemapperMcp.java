@@ -2,6 +2,7 @@ package net.fabricmc.loom.newprovider;
 
 import net.fabricmc.loom.LoomGradleExtension;
 import net.fabricmc.loom.mcp.Srg;
+import net.fabricmc.tinyremapper.InputTag;
 import net.fabricmc.tinyremapper.OutputConsumerPath;
 import net.fabricmc.tinyremapper.TinyRemapper;
 import org.gradle.api.Project;
@@ -15,10 +16,23 @@ import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.TypePath;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 public class RemapperMcp extends NewProvider<RemapperMcp> {
 	public RemapperMcp(Project project, LoomGradleExtension extension) {
@@ -65,6 +79,23 @@ public class RemapperMcp extends NewProvider<RemapperMcp> {
 		return mappedJar;
 	}
 	
+	//for NaiveRenamer's fused mode, which does this provider's job without calling remap()
+	Path getInputJar() {
+		return input;
+	}
+	
+	Srg getSrg() {
+		return srg;
+	}
+	
+	@Nullable Set<String> getDeletedPrefixes() {
+		return deletedPrefixes;
+	}
+	
+	Set<Path> getRemapClasspath() {
+		return remapClasspath;
+	}
+	
 	public RemapperMcp remap() throws Exception {
 		mappedJar = getOrCreate(getCacheDir().resolve("mapped").resolve(mappedDirectory).resolve(props.subst(mappedFilename)), dest ->
 			doIt(input, dest, srg, log, deletedPrefixes, remapClasspath));
@@ -74,14 +105,7 @@ public class RemapperMcp extends NewProvider<RemapperMcp> {
 	
 	public static void doIt(Path input, Path mappedJar, Srg srg, Logger log, @Nullable Set<String> deletedPrefixes, @Nullable Set<Path> remapClasspath) throws Exception {
 		log.lifecycle("\\-> Constructing TinyRemapper");
-		TinyRemapper remapper = TinyRemapper.newRemapper()
-			.renameInvalidLocals(true)
-			.rebuildSourceFilenames(true)
-			.ignoreFieldDesc(true) //MCP doesn't have them
-			.skipLocalVariableMapping(true)
-			.withMappings(srg.toMappingProvider())
-			.extraPostApplyVisitor((trclass, next) -> new Asm4CompatClassVisitor(next)) //TODO maybe move this lol
-			.build();
+		TinyRemapper remapper = newRemapper(srg);
 		
 		log.lifecycle("] input jar: {}", input);
 		log.lifecycle("] mapped jar: {}", mappedJar);
@@ -92,8 +116,10 @@ public class RemapperMcp extends NewProvider<RemapperMcp> {
 		if(deletedPrefixes != null && !deletedPrefixes.isEmpty()) buildybuild.filter(s -> !deletedPrefixes.contains(s.split("/", 2)[0]));
 		try(OutputConsumerPath oc = buildybuild.build()) {
 			oc.addNonClassFiles(input);
-			if(remapClasspath != null) remapper.readClassPath(remapClasspath.toArray(new Path[0]));
+			//read the classpath and the input at the same time
+			CompletableFuture<?> classpathRead = remapClasspath == null ? null : remapper.readClassPathAsync(remapClasspath.toArray(new Path[0]));
 			remapper.readInputs(input);
+			if(classpathRead != null) classpathRead.get();
 			remapper.apply(oc);
 		} finally {
 			remapper.finish();
@@ -102,6 +128,148 @@ public class RemapperMcp extends NewProvider<RemapperMcp> {
 		log.lifecycle("\\-> Remap success! :)");
 	}
 	
+	/**
+	 * Remaps several jars with one TinyRemapper, so the classpath is read and indexed once, instead of once per jar. Each
+	 * input jar can see the classes of the other input jars, same as if they were in {@code remapClasspath}.
+	 * <p>
+	 * Tiny-remapper only keeps one class per name, so if two input jars contain a class with the same name (say, both
+	 * shade the same library), it would write the same copy of it into both. Jars like that get remapped on their own
+	 * afterwards, with the other input jars on their classpath, like they would have been before.
+	 * 
+	 * @param inputsToOutputs input jars, and where to write the remapped version of each one
+	 */
+	public static void doItTogether(Map<Path, Path> inputsToOutputs, Srg srg, Logger log, Set<Path> remapClasspath) throws Exception {
+		Map<Path, Path> together = new LinkedHashMap<>();
+		Map<Path, Path> alone = new LinkedHashMap<>();
+		Set<String> seenClasses = new HashSet<>();
+		for(Map.Entry<Path, Path> entry : inputsToOutputs.entrySet()) {
+			List<String> classes = listClasses(entry.getKey());
+			if(classes.stream().anyMatch(seenClasses::contains)) {
+				alone.put(entry.getKey(), entry.getValue());
+			} else {
+				seenClasses.addAll(classes);
+				together.put(entry.getKey(), entry.getValue());
+			}
+		}
+		
+		if(!together.isEmpty()) {
+			log.lifecycle("\\-> Remapping {} jars with one TinyRemapper", together.size());
+			TinyRemapper remapper = newRemapper(srg);
+			try {
+				List<CompletableFuture<?>> reads = new ArrayList<>();
+				reads.add(remapper.readClassPathAsync(remapClasspath.toArray(new Path[0])));
+				
+				Map<Path, InputTag> tags = new HashMap<>();
+				for(Path input : together.keySet()) {
+					InputTag tag = remapper.createInputTag();
+					tags.put(input, tag);
+					reads.add(remapper.readInputsAsync(tag, input));
+				}
+				for(CompletableFuture<?> read : reads) read.get();
+				
+				for(Map.Entry<Path, Path> entry : together.entrySet()) {
+					log.info("] {} -> {}", entry.getKey(), entry.getValue());
+					try(OutputConsumerPath oc = new OutputConsumerPath.Builder(entry.getValue()).build()) {
+						oc.addNonClassFiles(entry.getKey());
+						remapper.apply(oc, tags.get(entry.getKey()));
+					}
+				}
+			} finally {
+				remapper.finish();
+			}
+			log.lifecycle("\\-> Remap success! :)");
+		}
+		
+		for(Map.Entry<Path, Path> entry : alone.entrySet()) {
+			log.lifecycle("\\-> {} has classes with the same names as another jar, remapping it separately", entry.getKey());
+			Set<Path> classpath = new LinkedHashSet<>(remapClasspath);
+			for(Path other : inputsToOutputs.keySet()) if(!other.equals(entry.getKey())) classpath.add(other);
+			doIt(entry.getKey(), entry.getValue(), srg, log, null, classpath);
+		}
+	}
+	
+	/**
+	 * Remaps some of the classes in a jar, for {@code ReobfJarTask}'s incremental mode.
+	 * 
+	 * @param dirtyJar a jar containing only the classes that need remapping
+	 * @param cleanJar a jar with the rest of the mod's classes, or {@code null} if there aren't any. It goes on the classpath,
+	 *                 so the remapper still sees the entire class hierarchy. No class is in both jars, so it doesn't matter
+	 *                 which copy tiny-remapper would pick if one were.
+	 * @param out called with each remapped class, from tiny-remapper's threads
+	 */
+	public static void remapClasses(Path dirtyJar, @Nullable Path cleanJar, Srg srg, Set<Path> remapClasspath, RemappedClassConsumer out) throws Exception {
+		Map<String, String> unmappedNames = new ConcurrentHashMap<>();
+		TinyRemapper remapper = newRemapper(srg, (unmapped, mapped) -> unmappedNames.put(mapped, unmapped));
+		try {
+			Set<Path> classpath = new LinkedHashSet<>(remapClasspath);
+			if(cleanJar != null) classpath.add(cleanJar);
+			
+			CompletableFuture<?> classpathRead = remapper.readClassPathAsync(classpath.toArray(new Path[0]));
+			remapper.readInputs(dirtyJar);
+			classpathRead.get();
+			
+			remapper.apply((mapped, bytes) -> out.accept(unmappedNames.get(mapped), mapped, bytes));
+		} finally {
+			remapper.finish();
+		}
+	}
+	
+	public interface RemappedClassConsumer {
+		void accept(String unmappedName, String mappedName, byte[] bytes);
+	}
+	
+	private static List<String> listClasses(Path jar) throws IOException {
+		List<String> classes = new ArrayList<>();
+		try(ZipFile zip = new ZipFile(jar.toFile())) {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while(entries.hasMoreElements()) {
+				String name = entries.nextElement().getName();
+				if(name.endsWith(".class")) classes.add(name);
+			}
+		}
+		return classes;
+	}
+	
+	//Also used by NaiveRenamer's fused mode, which needs a remapper set up exactly the same way
+	static TinyRemapper newRemapper(Srg srg) {
+		return newRemapper(srg, null);
+	}
+	
+	/**
+	 * @param classNames if not null, told the unmapped and mapped name of each class as it's remapped (from tiny-remapper's
+	 *                   threads), before the class is handed to the output consumer
+	 */
+	static TinyRemapper newRemapper(Srg srg, @Nullable BiConsumer<String, String> classNames) {
+		return TinyRemapper.newRemapper()
+			.renameInvalidLocals(true)
+			.rebuildSourceFilenames(true)
+			.ignoreFieldDesc(true) //MCP doesn't have them
+			.skipLocalVariableMapping(true)
+			.withMappings(srg.toMappingProvider())
+			.extraPostApplyVisitor((trclass, next) -> {
+				ClassVisitor visitor = new Asm4CompatClassVisitor(next); //TODO maybe move this lol
+				return classNames == null ? visitor : new ClassNameReporter(visitor, trclass.getName(), classNames);
+			})
+			.build();
+	}
+	
+	private static class ClassNameReporter extends ClassVisitor {
+		public ClassNameReporter(ClassVisitor classVisitor, String unmappedName, BiConsumer<String, String> classNames) {
+			super(Opcodes.ASM9, classVisitor);
+			this.unmappedName = unmappedName;
+			this.classNames = classNames;
+		}
+		
+		private final String unmappedName;
+		private final BiConsumer<String, String> classNames;
+		
+		@Override
+		public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+			classNames.accept(unmappedName, name);
+			super.visit(version, access, name, signature, superName, interfaces);
+		}
+	}
+	
 	/**
 	 * Basically tiny-remapper is putting things into the class file that aren't compatible with ASM api level 4, which
 	 * many versions of Forge use to parse mod classes. Ex., for some reason after remapping, a parameter-name table
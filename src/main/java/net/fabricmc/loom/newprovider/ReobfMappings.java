@@ -0,0 +1,110 @@
+package net.fabricmc.loom.newprovider;
+
+import net.fabricmc.loom.LoomGradleExtension;
+import net.fabricmc.loom.mcp.McpMappingsBinary;
+import net.fabricmc.loom.mcp.MemberLookup;
+import net.fabricmc.loom.mcp.Srg;
+import org.gradle.api.Project;
+
+import javax.annotation.Nullable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The mappings {@code ReobfJarTask} uses to turn a named mod jar back into the distribution naming scheme.
+ * <p>
+ * Most builds never run that task, so nothing happens when this is set up except working out the props. The inverted Srg
+ * is only created the first time someone calls {@link #get()}, and it's saved in the user cache, so later release builds
+ * with the same mappings can load it instead of building it again.
+ */
+public class ReobfMappings extends NewProvider<ReobfMappings> {
+	public ReobfMappings(Project project, LoomGradleExtension extension) {
+		super(project, extension);
+	}
+	
+	//inputs
+	private Srg srg;
+	private MemberLookup fields, methods;
+	private boolean reobfToSrg;
+	private Path scannedJar;
+	private @Nullable Path debugOutput;
+	
+	public ReobfMappings srg(Srg srg) {
+		this.srg = srg;
+		return this;
+	}
+	
+	public ReobfMappings fields(MemberLookup fields) {
+		this.fields = fields;
+		return this;
+	}
+	
+	public ReobfMappings methods(MemberLookup methods) {
+		this.methods = methods;
+		return this;
+	}
+	
+	/**
+	 * If true, reobfuscate to SRG names (used from 1.5 on), otherwise all the way to proguarded names.
+	 */
+	public ReobfMappings reobfToSrg(boolean reobfToSrg) {
+		this.reobfToSrg = reobfToSrg;
+		return this;
+	}
+	
+	/**
+	 * The jar the mappings were built against; its inner-class info went into them.
+	 */
+	public ReobfMappings scannedJar(Path scannedJar) {
+		this.scannedJar = scannedJar;
+		return this;
+	}
+	
+	/**
+	 * Also write the mappings to this path in .srg format, when they're loaded.
+	 */
+	public ReobfMappings debugOutput(@Nullable Path debugOutput) {
+		this.debugOutput = debugOutput;
+		return this;
+	}
+	
+	public ReobfMappings prepare() throws Exception {
+		props.putFingerprint("scanned-jar", scannedJar, fingerprints());
+		props.put("reobf-to-srg", Boolean.toString(reobfToSrg));
+		return this;
+	}
+	
+	//output
+	private Srg reobfSrg;
+	
+	/**
+	 * Changes whenever the mappings {@link #get()} returns would, without having to create them.
+	 */
+	public String getHash() {
+		return props.hexHash();
+	}
+	
+	public synchronized Srg get() throws Exception {
+		if(reobfSrg != null) return reobfSrg;
+		
+		Path path = getCacheDir().resolve("reobf-mappings").resolve(getHash() + ".bin");
+		if(needsCreating(path)) {
+			log.lifecycle("\\-> Building reobf mappings...");
+			reobfSrg = srg.reobf(fields, methods, reobfToSrg);
+			McpMappingsBinary.writeSrg(path, reobfSrg);
+			checkCreated(path, this);
+		} else {
+			log.lifecycle("\\-> Loading reobf mappings from {}", path);
+			reobfSrg = McpMappingsBinary.readSrg(path);
+		}
+		
+		if(debugOutput != null) {
+			Files.deleteIfExists(debugOutput);
+			
+			log.lifecycle("!! Writing debug reobf mappings to {}", debugOutput);
+			reobfSrg.writeTo(debugOutput);
+		}
+		
+		return reobfSrg;
+	}
+}
@@ -105,6 +105,7 @@ public class VanillaDependencyFetcher extends NewProvider<VanillaDependencyFetch
 					.dest(nativeArtifact.resolveFlat(dest.resolve("jars")))
 					.etag(false) //no need to save etag, this directory is fresh.
 					.gzip(true)
+					.expectSha1(nativeArtifact.sha1)
 					.download();
 				
 				//extract them all onto each other in nativesDir. the file visitor here is a "filter" argument.
@@ -10,7 +10,6 @@ import org.jetbrains.annotations.Nullable;
 
 import java.nio.file.Path;
 import java.time.Period;
-import java.util.Locale;
 
 public class VanillaJarFetcher extends NewProvider<VanillaJarFetcher> {
 	public VanillaJarFetcher(Project project, LoomGradleExtension extension) {
@@ -65,38 +64,12 @@ public class VanillaJarFetcher extends NewProvider<VanillaJarFetcher> {
 	public VanillaJarFetcher fetch() throws Exception {
 		Check.notNull(mc, "minecraft version");
 		
-		//TODO: skipIfNewerThan doesn't work inside getOrCreate
-		Props indexProps = props.copy().remove("mcversion"); //Manifest is independent of the minecraft version.
-		Path versionManifestIndexJson = getOrCreate(getCacheDir().resolve(indexProps.subst("version_manifest_{HASH}.json")), dest -> {
-			log.info("|-> Downloading manifest index to {}...", dest);
-			newDownloadSession("https://launchermeta.mojang.com/mc/game/version_manifest.json")
-				.dest(dest)
-				.etag(true)
-				.gzip(true)
-				.skipIfNewerThan(Period.ofDays(14))
-				.download();
-		});
-		log.lifecycle("] manifest index: {}", versionManifestIndexJson);
-		
-		log.info("|-> Parsing manifest index...");
-		ManifestIndex versionManifestIndex = ManifestIndex.read(versionManifestIndexJson);
-		ManifestIndex.VersionData selectedVersion;
-		if(customManifestUrl != null) {
-			log.lifecycle("!! Using custom Minecraft per-version manifest at URL: {}", customManifestUrl);
-			selectedVersion = new ManifestIndex.VersionData();
-			selectedVersion.id = mc.getVersion();
-			selectedVersion.url = customManifestUrl;
-		} else {
-			log.info("|-> Browsing manifest index, looking for per-version manifest for {}...", mc.getVersion());
-			selectedVersion = versionManifestIndex.versions.get(mc.getVersion().toLowerCase(Locale.ROOT));
-			if(selectedVersion == null || selectedVersion.url == null) {
-				throw new IllegalStateException("Could not find a per-version manifest corresponding to Minecraft version '" + mc.getVersion() + "' in version_manifest.json ('" + versionManifestIndexJson + "').");
-			}
-		}
-		
+		//The manifest index is only needed to find the URL of the per-version manifest, so it's not even opened unless
+		//the per-version manifest needs downloading.
 		Path thisVersionManifestJson = getOrCreate(getCacheDir().resolve(props.subst("minecraft-" + mc.getFilenameSafeVersion() + "-info-{HASH}.json")), dest -> {
+			String perVersionManifestUrl = findPerVersionManifestUrl();
 			log.info("|-> Found URL for Minecraft {} per-version manifest, downloading to {}...", mc.getVersion(), dest);
-			newDownloadSession(selectedVersion.url)
+			newDownloadSession(perVersionManifestUrl)
 				.dest(dest)
 				.gzip(true)
 				.etag(true)
@@ -113,6 +86,8 @@ public class VanillaJarFetcher extends NewProvider<VanillaJarFetcher> {
 				.dest(dest)
 				.etag(true)
 				.gzip(false)
+				.resumable()
+				.expectSha1(versionManifest.downloads.get("client").sha1)
 				.download();
 		});
 		log.lifecycle("] client jar: {}", clientJar);
@@ -123,10 +98,39 @@ public class VanillaJarFetcher extends NewProvider<VanillaJarFetcher> {
 				.dest(dest)
 				.etag(true)
 				.gzip(false)
+				.resumable()
+				.expectSha1(versionManifest.downloads.get("server").sha1)
 				.download();
 		});
 		log.lifecycle("] server jar: {}", serverJar);
 		
 		return this;
 	}
+	
+	private String findPerVersionManifestUrl() throws Exception {
+		if(customManifestUrl != null) {
+			log.lifecycle("!! Using custom Minecraft per-version manifest at URL: {}", customManifestUrl);
+			return customManifestUrl;
+		}
+		
+		//TODO: skipIfNewerThan doesn't work inside getOrCreate
+		Props indexProps = props.copy().remove("mcversion"); //Manifest is independent of the minecraft version.
+		Path versionManifestIndexJson = getOrCreate(getCacheDir().resolve(indexProps.subst("version_manifest_{HASH}.json")), dest -> {
+			log.info("|-> Downloading manifest index to {}...", dest);
+			newDownloadSession("https://launchermeta.mojang.com/mc/game/version_manifest.json")
+				.dest(dest)
+				.etag(true)
+				.gzip(true)
+				.skipIfNewerThan(Period.ofDays(14))
+				.download();
+		});
+		log.lifecycle("] manifest index: {}", versionManifestIndexJson);
+		
+		log.info("|-> Browsing manifest index, looking for per-version manifest for {}...", mc.getVersion());
+		ManifestIndex.VersionData selectedVersion = ManifestIndex.find(versionManifestIndexJson, mc.getVersion());
+		if(selectedVersion == null || selectedVersion.url == null) {
+			throw new IllegalStateException("Could not find a per-version manifest corresponding to Minecraft version '" + mc.getVersion() + "' in version_manifest.json ('" + versionManifestIndexJson + "').");
+		}
+		return selectedVersion.url;
+	}
 }
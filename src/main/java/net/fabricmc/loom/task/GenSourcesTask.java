@@ -4,6 +4,8 @@ import net.fabricmc.loom.Constants;
 import net.fabricmc.loom.LoomGradlePlugin;
 import net.fabricmc.loom.task.fernflower.ForkedFFExecutor;
 import net.fabricmc.loom.util.GradleSupport;
+import net.fabricmc.loom.util.JarReader;
+import net.fabricmc.loom.util.JarWriter;
 import net.fabricmc.loom.util.LineNumberRemapper;
 import net.fabricmc.loom.util.LoomTaskExt;
 import net.fabricmc.loom.util.ZipUtil;
@@ -111,8 +113,9 @@ public class GenSourcesTask extends DefaultTask implements LoomTaskExt {
 		LineNumberRemapper remapper = new LineNumberRemapper().readMappings(linemapFile);
 		
 		getLogger().lifecycle("|-> Remapping line numbers...");
-		try(FileSystem srcFs = ZipUtil.openFs(mappedJar); FileSystem dstFs = ZipUtil.createFs(linemappedJar)) {
-			remapper.process(srcFs, dstFs);
+		try(JarWriter dst = new JarWriter(linemappedJar)) {
+			remapper.process(new JarReader(mappedJar), dst);
+			dst.finish();
 		} catch (Exception e) {
 			throw new RuntimeException("Trouble linemapping: " + e.getMessage(), e);
 		}
@@ -126,8 +129,9 @@ public class GenSourcesTask extends DefaultTask implements LoomTaskExt {
 			getLogger().lifecycle("] !! DEBUGGING !!, sources jar annotated with linemap data: {}", debugSources);
 			
 			getLogger().lifecycle("|-> Creating linemap debug jar...");
-			try(FileSystem sourcesFs = ZipUtil.openFs(sourcesJar); FileSystem processedSourcesFs = ZipUtil.createFs(debugSources)) {
-				remapper.processDebug(sourcesFs, processedSourcesFs);
+			try(FileSystem sourcesFs = ZipUtil.openFs(sourcesJar); JarWriter processedSources = new JarWriter(debugSources)) {
+				remapper.processDebug(sourcesFs, processedSources);
+				processedSources.finish();
 			} catch (Exception e) {
 				throw new RuntimeException("Trouble writing linemap debug jar: " + e.getMessage(), e);
 			}
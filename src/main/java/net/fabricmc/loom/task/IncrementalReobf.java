@@ -0,0 +1,364 @@
+package net.fabricmc.loom.task;
+
+import net.fabricmc.loom.mcp.Srg;
+import net.fabricmc.loom.newprovider.RemapperMcp;
+import net.fabricmc.loom.util.Checksum;
+import net.fabricmc.loom.util.FileFingerprints;
+import net.fabricmc.loom.util.JarReader;
+import net.fabricmc.loom.util.JarWriter;
+import org.gradle.api.logging.Logger;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * {@link ReobfJarTask}'s incremental mode. Along with the reobfuscated jar, it keeps a manifest of every class it remapped
+ * last time: the hash of the class that went in, and the name it came out as. Next time, only the classes that changed
+ * since then go through tiny-remapper, along with their subclasses (which inherit member names from them) and every class
+ * that refers to one of them. The rest are copied out of the previous jar without even being recompressed.
+ * <p>
+ * Everything is remapped again if the mappings or the classpath changed, or if a changed class has a different superclass,
+ * interfaces, or set of declared fields and methods than it used to. Those change how member references get resolved, and
+ * not only in the classes that mention the changed class by name: a field added to a class can shadow a Minecraft field
+ * that a subclass's subclass used to inherit, say.
+ */
+public class IncrementalReobf {
+	public IncrementalReobf(Path cacheDir, Logger log) {
+		this.manifestPath = cacheDir.resolve("manifest.txt");
+		this.previousJar = cacheDir.resolve("previous.jar");
+		this.dirtyJar = cacheDir.resolve("dirty.jar");
+		this.cleanJar = cacheDir.resolve("clean.jar");
+		this.log = log;
+	}
+	
+	private final Path manifestPath, previousJar, dirtyJar, cleanJar;
+	private final Logger log;
+	
+	private static final String MANIFEST_HEADER = "voldeloom incremental reobf manifest v2";
+	
+	/**
+	 * @param mappingsKey something that changes when {@code srg} does
+	 */
+	public void run(Path input, Path output, Srg srg, String mappingsKey, Set<Path> remapClasspath, FileFingerprints fingerprints) throws Exception {
+		String key = key(mappingsKey, remapClasspath, fingerprints);
+		
+		JarReader inputJar = new JarReader(input);
+		Map<String, ClassInfo> classes = new LinkedHashMap<>();
+		for(JarReader.Entry entry : inputJar) {
+			if(entry.isDirectory() || !entry.name.endsWith(".class")) continue;
+			
+			byte[] bytes = entry.bytes();
+			ClassReader reader = new ClassReader(bytes);
+			classes.put(reader.getClassName(), new ClassInfo(entry, Checksum.bytesHexHash(bytes, Checksum.SHA256.get()), header(reader), members(reader), referencedClasses(reader)));
+		}
+		
+		//Work out what has to be remapped.
+		Manifest previous = Manifest.read(manifestPath);
+		JarReader previousOutput = null;
+		Set<String> dirty = null;
+		if(previous == null || Files.notExists(previousJar)) {
+			log.lifecycle("\\-> No previous incremental reobf state, remapping everything");
+		} else if(!previous.key.equals(key)) {
+			log.lifecycle("\\-> Mappings or classpath changed since the last reobf, remapping everything");
+		} else {
+			previousOutput = new JarReader(previousJar);
+			dirty = findDirtyClasses(classes, previous, previousOutput);
+		}
+		if(dirty == null) dirty = classes.keySet();
+		
+		//If this gets interrupted, the manifest shouldn't describe a jar that's halfway overwritten.
+		Files.deleteIfExists(manifestPath);
+		
+		Map<String, RemappedClass> remapped = new ConcurrentHashMap<>();
+		if(!dirty.isEmpty()) {
+			log.lifecycle("\\-> Remapping {} of {} classes", dirty.size(), classes.size());
+			
+			//Split the mod's classes in two, so the unchanged ones can go on the classpath without the remapper ever
+			//seeing two copies of the same class.
+			boolean anyClean = dirty.size() < classes.size();
+			try(JarWriter dirtyWriter = new JarWriter(dirtyJar); JarWriter cleanWriter = anyClean ? new JarWriter(cleanJar) : null) {
+				for(Map.Entry<String, ClassInfo> entry : classes.entrySet()) {
+					if(dirty.contains(entry.getKey())) dirtyWriter.copy(entry.getValue().entry);
+					else cleanWriter.copy(entry.getValue().entry);
+				}
+				
+				dirtyWriter.finish();
+				if(cleanWriter != null) cleanWriter.finish();
+			}
+			RemapperMcp.remapClasses(dirtyJar, anyClean ? cleanJar : null, srg, remapClasspath, (unmappedName, mappedName, bytes) -> remapped.put(unmappedName, new RemappedClass(mappedName, bytes)));
+			Files.delete(dirtyJar);
+			Files.deleteIfExists(cleanJar);
+		} else {
+			log.lifecycle("\\-> No classes changed, only copying resources");
+		}
+		
+		Manifest next = new Manifest(key);
+		try(JarWriter out = new JarWriter(output)) {
+			//like OutputConsumerPath.addNonClassFiles, copy everything else as-is
+			for(JarReader.Entry entry : inputJar) {
+				if(entry.isDirectory() || entry.name.endsWith(".class")) continue;
+				out.copy(entry);
+			}
+			
+			for(Map.Entry<String, ClassInfo> entry : classes.entrySet()) {
+				String name = entry.getKey();
+				ClassInfo info = entry.getValue();
+				
+				String mappedName;
+				if(dirty.contains(name)) {
+					RemappedClass r = remapped.get(name);
+					if(r == null) throw new IOException("tiny-remapper didn't output anything for class " + name);
+					mappedName = r.mappedName;
+					out.write(mappedName + ".class", r.bytes);
+				} else {
+					mappedName = previous.classes.get(name).mappedName;
+					out.copy(previousOutput.get(mappedName + ".class"));
+				}
+				
+				next.classes.put(name, new ManifestEntry(info.hash, mappedName, info.header, info.members));
+			}
+			
+			out.finish();
+		}
+		
+		Files.copy(output, previousJar, StandardCopyOption.REPLACE_EXISTING);
+		next.write(manifestPath);
+	}
+	
+	/**
+	 * @return the classes to remap, or {@code null} if everything has to be remapped
+	 */
+	private @Nullable Set<String> findDirtyClasses(Map<String, ClassInfo> classes, Manifest previous, JarReader previousOutput) {
+		Set<String> changed = new LinkedHashSet<>();
+		for(Map.Entry<String, ClassInfo> entry : classes.entrySet()) {
+			String name = entry.getKey();
+			ClassInfo info = entry.getValue();
+			ManifestEntry old = previous.classes.get(name);
+			
+			if(old == null) {
+				changed.add(name);
+			} else if(!old.hash.equals(info.hash)) {
+				if(!old.header.equals(info.header)) {
+					log.lifecycle("\\-> The superclass or interfaces of {} changed, remapping everything", name);
+					return null;
+				}
+				if(!old.members.equals(info.members)) {
+					log.lifecycle("\\-> The fields or methods declared in {} changed, remapping everything", name);
+					return null;
+				}
+				changed.add(name);
+			} else if(previousOutput.get(old.mappedName + ".class") == null) {
+				log.lifecycle("\\-> Previous reobf jar is missing {}, remapping everything", old.mappedName);
+				return null;
+			}
+		}
+		
+		//subclasses see the members of their supertypes, so they need remapping too
+		Map<String, List<String>> subclasses = new HashMap<>();
+		for(Map.Entry<String, ClassInfo> entry : classes.entrySet()) {
+			for(String supertype : entry.getValue().header.split(",")) {
+				if(!supertype.isEmpty()) subclasses.computeIfAbsent(supertype, __ -> new ArrayList<>()).add(entry.getKey());
+			}
+		}
+		
+		Set<String> dirty = new LinkedHashSet<>(changed);
+		Deque<String> queue = new ArrayDeque<>(changed);
+		while(!queue.isEmpty()) {
+			for(String subclass : subclasses.getOrDefault(queue.pop(), new ArrayList<>())) {
+				if(dirty.add(subclass)) queue.add(subclass);
+			}
+		}
+		
+		//and anything that refers to a changed (or deleted) class gets remapped against the new version of it
+		Set<String> changedOrGone = new HashSet<>(changed);
+		for(String name : previous.classes.keySet()) if(!classes.containsKey(name)) changedOrGone.add(name);
+		for(Map.Entry<String, ClassInfo> entry : classes.entrySet()) {
+			if(dirty.contains(entry.getKey())) continue;
+			for(String referenced : entry.getValue().referencedClasses) {
+				if(changedOrGone.contains(referenced)) {
+					dirty.add(entry.getKey());
+					break;
+				}
+			}
+		}
+		
+		return dirty;
+	}
+	
+	private static String key(String mappingsKey, Set<Path> remapClasspath, FileFingerprints fingerprints) throws IOException {
+		StringBuilder key = new StringBuilder(mappingsKey);
+		for(Path p : remapClasspath) {
+			key.append('\n');
+			if(Files.isDirectory(p)) {
+				//like another project's classes directory; the sizes and modification times of the files in it will do
+				try(Stream<Path> files = Files.walk(p)) {
+					for(Path file : (Iterable<Path>) files.filter(Files::isRegularFile).sorted()::iterator) {
+						key.append(p.relativize(file)).append(':').append(Files.size(file)).append(':').append(Files.getLastModifiedTime(file).toMillis()).append(';');
+					}
+				}
+			} else {
+				key.append(fingerprints.fingerprint(p));
+			}
+		}
+		return Checksum.stringHexHash(key.toString(), Checksum.SHA256.get());
+	}
+	
+	private static String header(ClassReader reader) {
+		StringBuilder header = new StringBuilder(reader.getSuperName() == null ? "" : reader.getSuperName());
+		for(String itf : reader.getInterfaces()) header.append(',').append(itf);
+		return header.toString();
+	}
+	
+	/**
+	 * A hash of the names, descriptors, and visibility of the fields and methods the class declares. Method bodies don't count.
+	 */
+	private static String members(ClassReader reader) {
+		List<String> members = new ArrayList<>();
+		int relevantAccess = Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED | Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC;
+		reader.accept(new ClassVisitor(Opcodes.ASM9) {
+			@Override
+			public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+				members.add("f " + (access & relevantAccess) + " " + name + " " + descriptor);
+				return null;
+			}
+			
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+				members.add("m " + (access & relevantAccess) + " " + name + " " + descriptor);
+				return null;
+			}
+		}, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+		
+		Collections.sort(members);
+		return Checksum.stringHexHash(String.join("\n", members), Checksum.SHA256.get());
+	}
+	
+	/**
+	 * The classes named by CONSTANT_Class entries in the constant pool. That's every class this one refers to a member of,
+	 * since field and method references name their owner with one.
+	 */
+	private static Set<String> referencedClasses(ClassReader reader) {
+		Set<String> referenced = new HashSet<>();
+		char[] buf = new char[reader.getMaxStringLength()];
+		for(int i = 1; i < reader.getItemCount(); i++) {
+			int offset = reader.getItem(i);
+			if(offset == 0 || reader.readByte(offset - 1) != CONSTANT_CLASS) continue; //0 = the unusable slot after a long or double
+			
+			String name = reader.readUTF8(offset, buf);
+			if(name.startsWith("[")) { //array types, like [Lcom/example/Foo;
+				name = name.substring(name.lastIndexOf('[') + 1);
+				if(!name.startsWith("L")) continue;
+				name = name.substring(1, name.length() - 1);
+			}
+			referenced.add(name);
+		}
+		return referenced;
+	}
+	
+	private static final int CONSTANT_CLASS = 7;
+	
+	private static class ClassInfo {
+		ClassInfo(JarReader.Entry entry, String hash, String header, String members, Set<String> referencedClasses) {
+			this.entry = entry;
+			this.hash = hash;
+			this.header = header;
+			this.members = members;
+			this.referencedClasses = referencedClasses;
+		}
+		
+		final JarReader.Entry entry;
+		final String hash;
+		final String header; //superclass and interfaces, comma-separated
+		final String members;
+		final Set<String> referencedClasses;
+	}
+	
+	private static class RemappedClass {
+		RemappedClass(String mappedName, byte[] bytes) {
+			this.mappedName = mappedName;
+			this.bytes = bytes;
+		}
+		
+		final String mappedName;
+		final byte[] bytes;
+	}
+	
+	private static class ManifestEntry {
+		ManifestEntry(String hash, String mappedName, String header, String members) {
+			this.hash = hash;
+			this.mappedName = mappedName;
+			this.header = header;
+			this.members = members;
+		}
+		
+		final String hash;
+		final String mappedName;
+		final String header;
+		final String members;
+	}
+	
+	/**
+	 * Text, one class per line: unmapped name, hash, mapped name, header, and members hash, separated by tabs.
+	 */
+	private static class Manifest {
+		Manifest(String key) {
+			this.key = key;
+		}
+		
+		final String key;
+		final Map<String, ManifestEntry> classes = new LinkedHashMap<>();
+		
+		static @Nullable Manifest read(Path path) {
+			try {
+				if(Files.notExists(path)) return null;
+				
+				List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+				if(lines.size() < 2 || !lines.get(0).equals(MANIFEST_HEADER)) return null;
+				
+				Manifest manifest = new Manifest(lines.get(1));
+				for(String line : lines.subList(2, lines.size())) {
+					String[] split = line.split("\t", -1);
+					manifest.classes.put(split[0], new ManifestEntry(split[1], split[2], split[3], split[4]));
+				}
+				return manifest;
+			} catch (IOException | RuntimeException e) {
+				return null; //corrupt or unreadable, just remap everything
+			}
+		}
+		
+		void write(Path path) throws IOException {
+			StringBuilder out = new StringBuilder(MANIFEST_HEADER).append('\n').append(key).append('\n');
+			classes.forEach((name, entry) -> out.append(name).append('\t').append(entry.hash).append('\t').append(entry.mappedName).append('\t').append(entry.header).append('\t').append(entry.members).append('\n'));
+			
+			Path tmp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+			try {
+				Files.write(tmp, out.toString().getBytes(StandardCharsets.UTF_8));
+				Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+		}
+	}
+}
@@ -26,11 +26,18 @@ package net.fabricmc.loom.task;
 
 import net.fabricmc.loom.Constants;
 import net.fabricmc.loom.LoomGradleExtension;
+import net.fabricmc.loom.WellKnownLocations;
+import net.fabricmc.loom.mcp.Srg;
+import net.fabricmc.loom.newprovider.ReobfMappings;
 import net.fabricmc.loom.newprovider.RemapperMcp;
+import net.fabricmc.loom.util.FileFingerprints;
 import net.fabricmc.loom.util.GradleSupport;
 import org.gradle.api.Project;
+import org.gradle.api.file.FileCollection;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.plugins.JavaPlugin;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.TaskAction;
 import org.gradle.jvm.tasks.Jar;
@@ -55,7 +62,6 @@ public class ReobfJarTask extends Jar {
 	public ReobfJarTask() {
 		setGroup(Constants.TASK_GROUP_PLUMBING);
 		setDescription("Remaps the mod under development into the distribution naming scheme, ready for publishing.");
-		getOutputs().upToDateWhen(__ -> false); //TODO
 	}
 	
 	private final RegularFileProperty input = GradleSupport.getRegularFileProperty(getProject());
@@ -65,7 +71,7 @@ public class ReobfJarTask extends Jar {
 		Project project = getProject();
 		LoomGradleExtension extension = project.getExtensions().getByType(LoomGradleExtension.class);
 		
-		if(extension.getProviderGraph().reobfSrg == null) {
+		if(extension.getProviderGraph().reobfMappings == null) {
 			for(int i = 0; i < 10; i++) getLogger().error("[Voldeloom] RELEASE REMAPPING FOR SPLIT JARS (1.2.5) IS CURRENTLY BROKEN!!!!!!! SORRY!!!");
 			return;
 		}
@@ -73,18 +79,22 @@ public class ReobfJarTask extends Jar {
 		Path input = this.getInput().getAsFile().get().toPath();
 		Path output = this.getArchivePath().toPath(); //TODO: deprecated and think it's missing in gradle 4 (needs GradleSupport reflection hell)
 		
-		//TODO: correct?
-		Set<Path> remapClasspath = project.getConfigurations()
-			.getByName(JavaPlugin.COMPILE_CLASSPATH_CONFIGURATION_NAME)
+		Srg reobfSrg = extension.getProviderGraph().reobfMappings.get();
+		Set<Path> remapClasspath = getRemapClasspath()
 			.getFiles()
 			.stream()
 			.map(File::toPath)
-			.filter(p -> !input.equals(p) && Files.exists(p))
 			.collect(Collectors.toCollection(LinkedHashSet::new));
 		
-		//TODO: weird
-		Files.deleteIfExists(output);
-		RemapperMcp.doIt(input, output, extension.getProviderGraph().reobfSrg, getLogger(), null, remapClasspath);
+		if(extension.incrementalReobf) {
+			new IncrementalReobf(WellKnownLocations.getReobfCache(project).resolve(getName()), getLogger())
+				.run(input, output, reobfSrg, getReobfMappingsHash(), remapClasspath,
+					new FileFingerprints(WellKnownLocations.getUserCache(project).resolve("fingerprints")));
+		} else {
+			//TODO: weird
+			Files.deleteIfExists(output);
+			RemapperMcp.doIt(input, output, reobfSrg, getLogger(), null, remapClasspath);
+		}
 
 		if(Files.notExists(output)) {
 			throw new RuntimeException("Failed to remap " + input + " to " + output + " - file missing!");
@@ -95,4 +105,23 @@ public class ReobfJarTask extends Jar {
 	public RegularFileProperty getInput() {
 		return input;
 	}
+	
+	//TODO: correct?
+	@Classpath
+	public FileCollection getRemapClasspath() {
+		return getProject().getConfigurations()
+			.getByName(JavaPlugin.COMPILE_CLASSPATH_CONFIGURATION_NAME)
+			.filter(f -> f.exists() && !f.equals(input.getAsFile().getOrNull()));
+	}
+	
+	@Input
+	public String getReobfMappingsHash() {
+		ReobfMappings reobfMappings = getProject().getExtensions().getByType(LoomGradleExtension.class).getProviderGraph().reobfMappings;
+		return reobfMappings == null ? "none" : reobfMappings.getHash();
+	}
+	
+	@Input
+	public boolean isIncremental() {
+		return getProject().getExtensions().getByType(LoomGradleExtension.class).incrementalReobf;
+	}
 }
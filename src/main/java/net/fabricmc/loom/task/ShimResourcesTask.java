@@ -3,32 +3,48 @@ package net.fabricmc.loom.task;
 import net.fabricmc.loom.Constants;
 import net.fabricmc.loom.LoomGradleExtension;
 import net.fabricmc.loom.RunConfig;
+import net.fabricmc.loom.WellKnownLocations;
+import net.fabricmc.loom.util.Checksum;
+import net.fabricmc.loom.util.FileLinker;
 import net.fabricmc.loom.util.LoomTaskExt;
 import org.gradle.api.DefaultTask;
+import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.OutputDirectories;
 import org.gradle.api.tasks.TaskAction;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
- * Gradle task that copies Minecraft's assets into place.
+ * Gradle task that copies (or links) Minecraft's assets into place.
+ * <p>
+ * For each run directory, it keeps a manifest of the files it put there last time, with the sizes and modification times
+ * of the file it came from and the file it made. When both still match, the file is left alone, so running this again
+ * only touches the assets that changed.
  */
 //TODO: extend AbstractCopyTask once i figure that out, instead of DefaultTask
 public class ShimResourcesTask extends DefaultTask implements LoomTaskExt {
 	public ShimResourcesTask() {
 		setGroup(Constants.TASK_GROUP_PLUMBING);
 		setDescription("Copies Minecraft's assets into the folder where the client expects to find them, since it tries to download them from a long-dead S3 bucket at game startup, and this version of the game does not support an --assetIndex parameter.");
-		getOutputs().upToDateWhen(__ -> getResourceTargetDirectories().stream().allMatch(Files::exists));
+		getOutputs().upToDateWhen(__ -> getResourceTargetDirectories().stream().allMatch(dir -> Files.exists(dir) && Files.exists(manifestPath(dir))));
 	}
 	
+	private static final String MANIFEST_HEADER = "voldeloom shim resources manifest v1";
+	
 	@OutputDirectories
 	public Collection<Path> getResourceTargetDirectories() {
 		return getLoomGradleExtension().runConfigs.stream()
@@ -39,6 +55,11 @@ public class ShimResourcesTask extends DefaultTask implements LoomTaskExt {
 			.collect(Collectors.toList());
 	}
 	
+	@Input
+	public String getMode() {
+		return FileLinker.Mode.parse(getLoomGradleExtension().shimResourcesMode).name().toLowerCase(Locale.ROOT);
+	}
+	
 	@TaskAction
 	public void doIt() throws Exception {
 		LoomGradleExtension ext = getLoomGradleExtension();
@@ -54,24 +75,132 @@ public class ShimResourcesTask extends DefaultTask implements LoomTaskExt {
 			return;
 		}
 		
+		List<Path> sourceFiles;
+		try(Stream<Path> files = Files.walk(resourceSourceDirectory)) {
+			sourceFiles = files
+				.filter(Files::isRegularFile)
+				.filter(p -> !p.toString().endsWith(".etag"))
+				.collect(Collectors.toList());
+		}
+		
+		FileLinker.Mode mode = FileLinker.Mode.parse(ext.shimResourcesMode);
 		for(Path resourceTargetDirectory : getResourceTargetDirectories()) {
-			Files.walkFileTree(resourceSourceDirectory, new SimpleFileVisitor<Path>() {
-				@Override
-				public FileVisitResult preVisitDirectory(Path sourceDirPath, BasicFileAttributes attrs) throws IOException {
-					Path targetDirPath = resourceTargetDirectory.resolve(resourceSourceDirectory.relativize(sourceDirPath));
-					Files.createDirectories(targetDirPath);
-					return FileVisitResult.CONTINUE;
-				}
-				
-				@Override
-				public FileVisitResult visitFile(Path sourceFilePath, BasicFileAttributes attrs) throws IOException {
-					if(sourceFilePath.toString().endsWith(".etag")) return FileVisitResult.CONTINUE;
-					
-					Path targetFilePath = resourceTargetDirectory.resolve(resourceSourceDirectory.relativize(sourceFilePath));
-					Files.copy(sourceFilePath, targetFilePath, StandardCopyOption.REPLACE_EXISTING);
-					return FileVisitResult.CONTINUE;
-				}
-			});
+			sync(resourceSourceDirectory, sourceFiles, resourceTargetDirectory, mode);
+		}
+	}
+	
+	private void sync(Path sourceDir, List<Path> sourceFiles, Path targetDir, FileLinker.Mode mode) throws IOException {
+		Path manifestPath = manifestPath(targetDir);
+		Map<String, ManifestEntry> previous = readManifest(manifestPath, mode, sourceDir);
+		Files.deleteIfExists(manifestPath); //if this gets interrupted, check every file next time
+		
+		FileLinker linker = new FileLinker(mode);
+		Map<String, ManifestEntry> next = new LinkedHashMap<>();
+		int upToDate = 0;
+		for(Path sourceFile : sourceFiles) {
+			String relative = sourceDir.relativize(sourceFile).toString().replace('\\', '/');
+			Path targetFile = targetDir.resolve(relative);
+			BasicFileAttributes sourceAttrs = Files.readAttributes(sourceFile, BasicFileAttributes.class);
+			BasicFileAttributes targetAttrs = attributesOrNull(targetFile);
+			
+			ManifestEntry old = previous.get(relative);
+			if(old != null && targetAttrs != null && old.matches(sourceAttrs, targetAttrs)) {
+				next.put(relative, old);
+				upToDate++;
+				continue;
+			}
+			
+			//Not in the manifest (maybe it's from an older Voldeloom that always copied). If it's an identical copy, keep it.
+			//A hard link to the source has the same contents too, but it's exactly what copy mode is supposed to get rid of.
+			if(old == null && mode == FileLinker.Mode.COPY && targetAttrs != null && targetAttrs.isRegularFile() && targetAttrs.size() == sourceAttrs.size() &&
+				!Files.isSameFile(sourceFile, targetFile) &&
+				Checksum.fileHexHash(sourceFile, Checksum.SHA1.get()).equals(Checksum.fileHexHash(targetFile, Checksum.SHA1.get()))) {
+				next.put(relative, new ManifestEntry(sourceAttrs, targetAttrs));
+				upToDate++;
+				continue;
+			}
+			
+			if(targetAttrs != null) Files.delete(targetFile); //if it's a link, this only deletes the link
+			linker.link(sourceFile, targetFile);
+			next.put(relative, new ManifestEntry(sourceAttrs, attributesOrNull(targetFile)));
+		}
+		
+		getLogger().lifecycle("|-> {}: {} assets were already in place, hardlinked/symlinked {}, copied {}", targetDir, upToDate, linker.getLinked(), linker.getCopied());
+		writeManifest(manifestPath, mode, sourceDir, next);
+	}
+	
+	private Path manifestPath(Path targetDir) {
+		String key = Checksum.stringHexHash(targetDir.toAbsolutePath().normalize().toString(), Checksum.SHA1.get());
+		return WellKnownLocations.getShimResourcesCache(getProject()).resolve(key + ".txt");
+	}
+	
+	//the links themselves, not what they point to; a symlink's own modification time is when it was made
+	private static @Nullable BasicFileAttributes attributesOrNull(Path path) throws IOException {
+		if(!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) return null;
+		return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+	}
+	
+	private static class ManifestEntry {
+		ManifestEntry(long sourceSize, long sourceModified, long targetSize, long targetModified) {
+			this.sourceSize = sourceSize;
+			this.sourceModified = sourceModified;
+			this.targetSize = targetSize;
+			this.targetModified = targetModified;
+		}
+		
+		ManifestEntry(BasicFileAttributes source, BasicFileAttributes target) {
+			this(source.size(), source.lastModifiedTime().toMillis(), target.size(), target.lastModifiedTime().toMillis());
+		}
+		
+		final long sourceSize, sourceModified, targetSize, targetModified;
+		
+		boolean matches(BasicFileAttributes source, BasicFileAttributes target) {
+			return sourceSize == source.size() && sourceModified == source.lastModifiedTime().toMillis() &&
+				targetSize == target.size() && targetModified == target.lastModifiedTime().toMillis();
+		}
+	}
+	
+	/**
+	 * Text: a header, the mode, and the source directory, then one line per file: the path relative to the run directory's
+	 * resources folder, and the sizes and modification times of the source and target, separated by tabs.
+	 * @return the entries, or an empty map if there's no manifest or it was made with a different mode or source directory
+	 */
+	private static Map<String, ManifestEntry> readManifest(Path path, FileLinker.Mode mode, Path sourceDir) {
+		Map<String, ManifestEntry> entries = new LinkedHashMap<>();
+		try {
+			if(Files.notExists(path)) return entries;
+			
+			List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+			if(lines.size() < 3 || !lines.get(0).equals(MANIFEST_HEADER) || !lines.get(1).equals(mode.name()) || !lines.get(2).equals(sourceDir.toAbsolutePath().toString())) {
+				return entries;
+			}
+			
+			for(String line : lines.subList(3, lines.size())) {
+				String[] split = line.split("\t");
+				entries.put(split[0], new ManifestEntry(Long.parseLong(split[1]), Long.parseLong(split[2]), Long.parseLong(split[3]), Long.parseLong(split[4])));
+			}
+			return entries;
+		} catch (IOException | RuntimeException e) {
+			entries.clear(); //corrupt or unreadable, just check everything
+			return entries;
+		}
+	}
+	
+	private static void writeManifest(Path path, FileLinker.Mode mode, Path sourceDir, Map<String, ManifestEntry> entries) throws IOException {
+		StringBuilder out = new StringBuilder(MANIFEST_HEADER).append('\n')
+			.append(mode.name()).append('\n')
+			.append(sourceDir.toAbsolutePath()).append('\n');
+		entries.forEach((name, e) -> out.append(name).append('\t')
+			.append(e.sourceSize).append('\t').append(e.sourceModified).append('\t')
+			.append(e.targetSize).append('\t').append(e.targetModified).append('\n'));
+		
+		Files.createDirectories(path.toAbsolutePath().getParent());
+		Path tmp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+		try {
+			Files.write(tmp, out.toString().getBytes(StandardCharsets.UTF_8));
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
 		}
 	}
 }
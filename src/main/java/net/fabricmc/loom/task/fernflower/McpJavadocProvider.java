@@ -30,11 +30,11 @@ public class McpJavadocProvider implements IFabricJavadocProvider {
 		}
 		McpMappings mappings = builder.build();
 		
-		mappings.fields.members.values().forEach(entry -> {
+		mappings.fields.forEach((srg, entry) -> {
 			if(entry.comment != null && !entry.comment.trim().isEmpty()) fieldComments.put(entry.remappedName, entry.comment);
 		});
 		
-		mappings.methods.members.values().forEach(entry -> {
+		mappings.methods.forEach((srg, entry) -> {
 			if(entry.comment != null && !entry.comment.trim().isEmpty()) methodComments.put(entry.remappedName, entry.comment);
 		});
 	}
@@ -0,0 +1,84 @@
+package net.fabricmc.loom.util;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads Minecraft asset indexes (the json files in {@code assets/indexes}) a token at a time, instead of parsing the
+ * whole thing into a Gson tree. Modern asset indexes list thousands of objects, and we only ever need to look at each
+ * one once.
+ */
+public class AssetIndex {
+	/**
+	 * Whether the index wants the legacy layout, where assets are stored under their filenames instead of their hashes.
+	 */
+	public static boolean isLegacyLayout(Path path) throws IOException {
+		boolean legacy = false;
+		try(JsonReader reader = open(path)) {
+			reader.beginObject();
+			while(reader.hasNext()) {
+				switch(reader.nextName()) {
+					case "map_to_resources": //Every version other than 1.6
+					case "virtual": //1.6, for some reason
+						legacy |= reader.nextBoolean();
+						break;
+					default:
+						reader.skipValue(); //including "objects"
+				}
+			}
+			reader.endObject();
+		}
+		return legacy;
+	}
+	
+	/**
+	 * Calls {@code consumer} with every entry of the index's "objects" map, in the order they're in the file.
+	 */
+	public static void forEachObject(Path path, ObjectConsumer consumer) throws Exception {
+		try(JsonReader reader = open(path)) {
+			reader.beginObject();
+			while(reader.hasNext()) {
+				if(!reader.nextName().equals("objects")) {
+					reader.skipValue();
+					continue;
+				}
+				
+				reader.beginObject();
+				while(reader.hasNext()) {
+					String filename = reader.nextName();
+					String hash = null;
+					long size = -1;
+					
+					reader.beginObject();
+					while(reader.hasNext()) {
+						switch(reader.nextName()) {
+							case "hash": hash = reader.nextString(); break;
+							case "size": size = reader.nextLong(); break;
+							default: reader.skipValue();
+						}
+					}
+					reader.endObject();
+					
+					if(hash == null) throw new IOException("Asset " + filename + " in " + path + " has no hash");
+					consumer.accept(filename, hash, size);
+				}
+				reader.endObject();
+			}
+			reader.endObject();
+		}
+	}
+	
+	public interface ObjectConsumer {
+		/**
+		 * @param size in bytes, or -1 if the index doesn't say
+		 */
+		void accept(String filename, String hash, long size) throws Exception;
+	}
+	
+	private static JsonReader open(Path path) throws IOException {
+		return new JsonReader(Files.newBufferedReader(path));
+	}
+}
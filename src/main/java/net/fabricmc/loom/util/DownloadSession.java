@@ -2,17 +2,23 @@ package net.fabricmc.loom.util;
 
 import net.fabricmc.loom.LoomGradleExtension;
 import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.time.temporal.TemporalAmount;
 import java.util.zip.GZIPInputStream;
@@ -25,8 +31,7 @@ import java.util.zip.GZIPInputStream;
  */
 public class DownloadSession {
 	public DownloadSession(Project project) {
-		this.project = project;
-		this.extension = project.getExtensions().getByType(LoomGradleExtension.class);
+		this(project.getLogger(), project.getExtensions().getByType(LoomGradleExtension.class));
 	}
 	
 	public DownloadSession(String url, Project project) {
@@ -34,8 +39,22 @@ public class DownloadSession {
 		url(url);
 	}
 	
-	private final Project project;
-	private final LoomGradleExtension extension;
+	private DownloadSession(Logger log, LoomGradleExtension extension) {
+		this(log, extension.offline, extension.refreshDependencies);
+	}
+	
+	/**
+	 * Doesn't need the project, so sessions can be made (and downloaded) off the configuring thread.
+	 */
+	public DownloadSession(Logger log, boolean offline, boolean refreshDependencies) {
+		this.log = log;
+		this.offline = offline;
+		this.refreshDependencies = refreshDependencies;
+	}
+	
+	private final Logger log;
+	private final boolean offline;
+	private final boolean refreshDependencies;
 	
 	private URL url;
 	private Path dest;
@@ -48,6 +67,10 @@ public class DownloadSession {
 	private @Nullable String skipIfSha1 = null;
 	private @Nullable TemporalAmount skipIfNewerThan = null;
 	
+	private @Nullable String expectedSha1 = null;
+	
+	private boolean resumable = false;
+	
 	private boolean quiet;
 	
 	public DownloadSession url(String url) {
@@ -89,6 +112,27 @@ public class DownloadSession {
 		return this;
 	}
 	
+	/**
+	 * Hash the file while it downloads, and fail the download if it doesn't have this SHA-1 hash. The file is written
+	 * somewhere else first, and only moved to the destination once the hash checks out, so a download that was cut off or
+	 * corrupted never ends up at the destination. Null skips the check.
+	 */
+	public DownloadSession expectSha1(@Nullable String expectedSha1) {
+		this.expectedSha1 = expectedSha1;
+		return this;
+	}
+	
+	/**
+	 * Keep what arrived of a download that got cut off in a {@code .part} file next to the destination, and ask the server
+	 * for just the rest of it, both right away and the next time this file is downloaded. If the file on the server changed
+	 * in the meantime, or the server doesn't do ranges, it sends the whole file instead.
+	 * Only works with {@code gzip(false)}.
+	 */
+	public DownloadSession resumable() {
+		this.resumable = true;
+		return this;
+	}
+	
 	public DownloadSession quiet() {
 		this.quiet = true;
 		return this;
@@ -101,7 +145,7 @@ public class DownloadSession {
 		boolean destExists = Files.exists(dest);
 		
 		//If we're offline, assume the file is up-to-date enough; and if we don't have the file, there's no way to get it.
-		if(extension.offline) {
+		if(offline) {
 			if(destExists) {
 				info("Not connecting to {} because {} exists and we're in offline mode.", url, dest);
 				return dest;
@@ -109,7 +153,7 @@ public class DownloadSession {
 		}
 		
 		//More fine-grained up-to-dateness checks that we skip in refreshDependencies mode.
-		if(destExists && !extension.refreshDependencies) {
+		if(destExists && !refreshDependencies) {
 			if(skipIfExists) {
 				info("Not connecting to {} because {} exists.", url, dest);
 				return dest;
@@ -124,13 +168,36 @@ public class DownloadSession {
 			}
 		}
 		
-		HttpURLConnection conn = (HttpURLConnection) url.openConnection(); //doesnt actually open html connection yet
-		
-		//Read the locally known etag, if one exists, and set the etag header.
+		//Read the locally known etag, if one exists.
 		String knownEtag = null;
 		Path etagFile = dest.resolveSibling(dest.getFileName().toString() + ".etag");
-		if(useEtag && destExists && Files.exists(etagFile) && !extension.refreshDependencies) {
+		if(useEtag && destExists && Files.exists(etagFile) && !refreshDependencies) {
 			knownEtag = new String(Files.readAllBytes(etagFile), StandardCharsets.UTF_8);
+		}
+		
+		if(!resumable || requestGzip) return connectAndSave(knownEtag, etagFile);
+		
+		//Keep picking up where the last attempt left off, as long as each one gets further than the one before.
+		Path partFile = dest.resolveSibling(dest.getFileName().toString() + ".part");
+		for(int attempt = 1; ; attempt++) {
+			long partSizeBefore = Files.exists(partFile) ? Files.size(partFile) : 0;
+			try {
+				return connectAndSave(knownEtag, etagFile);
+			} catch (IOException e) {
+				long partSizeAfter = Files.exists(partFile) ? Files.size(partFile) : 0;
+				if(attempt >= MAX_RESUME_ATTEMPTS || partSizeAfter <= partSizeBefore) throw e;
+				lifecycle("!! Download of {} was cut off after {} bytes ({}), resuming", url, partSizeAfter, e.toString());
+			}
+		}
+	}
+	
+	private static final int MAX_RESUME_ATTEMPTS = 10;
+	
+	private Path connectAndSave(@Nullable String knownEtag, Path etagFile) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection(); //doesnt actually open html connection yet
+		
+		//Set the etag header.
+		if(knownEtag != null) {
 			conn.setRequestProperty("If-None-Match", knownEtag);
 			conn.setIfModifiedSince(Files.getLastModifiedTime(dest).toMillis());
 		}
@@ -138,8 +205,22 @@ public class DownloadSession {
 		//Request a gzip header, if compression was requested.
 		if(requestGzip) conn.setRequestProperty("Accept-Encoding", "gzip");
 		
+		//Ask for the rest of an earlier attempt's partial file. If-Range makes the server send the whole file instead,
+		//if it changed since then. (Ranges of a gzipped response are ranges of the gzip stream, so don't bother there.)
+		boolean canResume = resumable && !requestGzip;
+		Path partFile = dest.resolveSibling(dest.getFileName().toString() + ".part");
+		Path partValidatorFile = dest.resolveSibling(dest.getFileName().toString() + ".part.validator");
+		long resumeFrom = 0;
+		if(canResume && Files.exists(partFile) && Files.exists(partValidatorFile)) {
+			resumeFrom = Files.size(partFile);
+			if(resumeFrom > 0) {
+				conn.setRequestProperty("Range", "bytes=" + resumeFrom + "-");
+				conn.setRequestProperty("If-Range", new String(Files.readAllBytes(partValidatorFile), StandardCharsets.UTF_8));
+			}
+		}
+		
 		//Actually connect.
-		lifecycle("Establishing connection to {} (sending etag header: {}, gzip encoding: {})...", url, knownEtag != null, requestGzip);
+		lifecycle("Establishing connection to {} (sending etag header: {}, gzip encoding: {}, resuming from byte: {})...", url, knownEtag != null, requestGzip, resumeFrom);
 		conn.connect();
 		
 		//We'll take a 304, or something in the OK section.
@@ -147,18 +228,80 @@ public class DownloadSession {
 		if(code == HttpURLConnection.HTTP_NOT_MODIFIED) {
 			lifecycle("\\-> Not Modified (etag match)"); //The server *shouldn't* send a 304 if we didn't send an etag?
 			return dest;
+		} else if(code == 416 && resumeFrom > 0) {
+			//Range Not Satisfiable; the partial file doesn't fit the file on the server at all, so start over
+			lifecycle("\\-> Server can't resume from byte {}, starting over", resumeFrom);
+			discardErrorBody(conn);
+			deletePartFiles(partFile, partValidatorFile);
+			return connectAndSave(knownEtag, etagFile);
 		} else if(code / 100 != 2) {
+			discardErrorBody(conn);
 			throw new IOException("Got " + code + " " + conn.getResponseMessage() + " from connection to " + url);
 		}
 		
-		//Download the entire file and save it to disk.
+		boolean append = false;
+		if(code == HttpURLConnection.HTTP_PARTIAL) {
+			String contentRange = conn.getHeaderField("Content-Range");
+			if(contentRange == null || !contentRange.startsWith("bytes " + resumeFrom + "-")) {
+				conn.getInputStream().close();
+				deletePartFiles(partFile, partValidatorFile);
+				throw new IOException("Asked " + url + " for the bytes from " + resumeFrom + " on, but got Content-Range " + contentRange);
+			}
+			append = true;
+			lifecycle("\\-> Resuming {} from byte {}", partFile, resumeFrom);
+		} else if(canResume) {
+			//Starting from scratch. Remember which version of the file this is, so an interrupted download can be resumed.
+			deletePartFiles(partFile, partValidatorFile);
+			String validator = conn.getHeaderField("ETag");
+			if(validator == null || validator.startsWith("W/")) validator = conn.getHeaderField("Last-Modified"); //If-Range can't use weak etags
+			if(validator != null) {
+				Files.createDirectories(dest.getParent());
+				Files.write(partValidatorFile, validator.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		
+		//Download the file next to the destination, and move it there once it's all arrived.
+		//Resumable downloads use the .part file, which is kept if this fails, so the next attempt can pick up from it.
 		lifecycle("\\-> Saving to {} ", dest);
 		Files.createDirectories(dest.getParent());
-		try(InputStream in = "gzip".equals(conn.getContentEncoding()) ? new GZIPInputStream(conn.getInputStream()) : conn.getInputStream()) {
-			Files.copy(in, dest, StandardCopyOption.REPLACE_EXISTING);
+		Path tmp = canResume ? partFile : Files.createTempFile(dest.getParent(), dest.getFileName().toString(), ".tmp");
+		try {
+			MessageDigest sha1 = expectedSha1 == null ? null : Checksum.SHA1.get();
+			if(sha1 != null && append) Checksum.feedFileToHasher(partFile, sha1);
+			
+			boolean gzipped = "gzip".equals(conn.getContentEncoding());
+			long received = 0;
+			try(InputStream body = gzipped ? new GZIPInputStream(conn.getInputStream()) : conn.getInputStream();
+			    InputStream in = sha1 == null ? body : new DigestInputStream(body, sha1);
+			    OutputStream out = append ? Files.newOutputStream(tmp, StandardOpenOption.APPEND) : Files.newOutputStream(tmp)) {
+				byte[] buf = new byte[16384];
+				int n;
+				while((n = in.read(buf)) != -1) {
+					out.write(buf, 0, n);
+					received += n;
+				}
+			}
+			
+			//HttpURLConnection doesn't always complain when the connection closes early; it just looks like the end of the file
+			long expectedLength = conn.getContentLengthLong();
+			if(!gzipped && expectedLength != -1 && received != expectedLength) {
+				throw new IOException("Connection to " + url + " closed after " + received + " of " + expectedLength + " bytes");
+			}
+			
+			if(sha1 != null) {
+				String actualSha1 = Checksum.toHexString(sha1.digest());
+				if(!actualSha1.equalsIgnoreCase(expectedSha1)) {
+					deletePartFiles(partFile, partValidatorFile); //no use resuming a broken file
+					throw new IOException("Downloaded " + url + ", but it has SHA-1 hash " + actualSha1 + " instead of the expected " + expectedSha1);
+				}
+				info("\\-> SHA-1 hash matches ({})", expectedSha1);
+			}
+			
+			moveIntoPlace(tmp, dest);
+			Files.deleteIfExists(partValidatorFile);
 		} catch (IOException e) {
 			//don't keep a half-downloaded file, if we can
-			try { Files.deleteIfExists(dest); } catch (Exception ignored) {}
+			if(!canResume) try { Files.deleteIfExists(tmp); } catch (Exception ignored) {}
 			throw e;
 		}
 		
@@ -172,11 +315,38 @@ public class DownloadSession {
 		return dest;
 	}
 	
+	/**
+	 * Reads an error response to the end and closes it. HttpURLConnection only hands a kept-alive connection back out when
+	 * its last response was read all the way, and the retry (or the next download) is usually headed to the same server.
+	 */
+	private static void discardErrorBody(HttpURLConnection conn) {
+		try(InputStream err = conn.getErrorStream()) {
+			if(err == null) return;
+			byte[] buf = new byte[4096];
+			while(err.read(buf) != -1); //drain
+		} catch (IOException ignored) {}
+	}
+	
+	private static void deletePartFiles(Path partFile, Path partValidatorFile) {
+		try {
+			Files.deleteIfExists(partFile);
+			Files.deleteIfExists(partValidatorFile);
+		} catch (IOException ignored) {}
+	}
+	
+	private static void moveIntoPlace(Path tmp, Path dest) throws IOException {
+		try {
+			Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
 	private void info(String x, Object... fmt) {
-		if(!quiet) project.getLogger().info(x, fmt);
+		if(!quiet) log.info(x, fmt);
 	}
 	
 	private void lifecycle(String x, Object... fmt) {
-		if(!quiet) project.getLogger().lifecycle(x, fmt);
+		if(!quiet) log.lifecycle(x, fmt);
 	}
 }
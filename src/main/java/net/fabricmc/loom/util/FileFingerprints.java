@@ -0,0 +1,102 @@
+package net.fabricmc.loom.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content hashes of input files, for putting in {@link Props} instead of the file's path. A path isn't a good cache key:
+ * the same Minecraft jar downloaded into a different Gradle home, project checkout, or CI agent has a different path,
+ * so it'd get a different {@code {HASH}} and everything derived from it would be recomputed.
+ * <p>
+ * Hashing a big jar on every Gradle invocation isn't free, though, so the hash of each file is remembered in a small
+ * sidecar file in {@code storeDir}, along with the file's size and modification time. The file is only hashed again when
+ * those change. The sidecars are found by path, but the only thing that makes its way into the {@code Props} is the
+ * content hash, so the rest of the cache stays relocatable.
+ * <p>
+ * Fingerprints are the hex SHA-256 of the file's contents, the same as {@code Checksum.fileHexHash(path, Checksum.SHA256.get())}.
+ */
+public class FileFingerprints {
+	public FileFingerprints(Path storeDir) {
+		this.storeDir = storeDir;
+	}
+	
+	private final Path storeDir;
+	
+	//so that asking about the same file twice in one Gradle invocation doesn't even stat the sidecar
+	private static final Map<Path, Fingerprint> MEMORY = new ConcurrentHashMap<>();
+	
+	public String fingerprint(Path file) throws IOException {
+		Path absolute = file.toAbsolutePath().normalize();
+		long size = Files.size(absolute);
+		long mtime = Files.getLastModifiedTime(absolute).toMillis();
+		
+		Fingerprint remembered = MEMORY.get(absolute);
+		if(remembered != null && remembered.matches(size, mtime)) return remembered.hash;
+		
+		Path sidecar = storeDir.resolve(Checksum.stringHexHash(absolute.toString(), Checksum.SHA256.get()).substring(0, 32) + ".txt");
+		Fingerprint stored = Fingerprint.read(sidecar);
+		if(stored != null && stored.matches(size, mtime)) {
+			MEMORY.put(absolute, stored);
+			return stored.hash;
+		}
+		
+		Fingerprint fresh = new Fingerprint(size, mtime, Checksum.fileHexHash(absolute, Checksum.SHA256.get()));
+		
+		//If the file changed while it was being hashed, the hash might be of neither version. Don't remember it.
+		if(Files.size(absolute) == size && Files.getLastModifiedTime(absolute).toMillis() == mtime) {
+			MEMORY.put(absolute, fresh);
+			fresh.write(sidecar);
+		}
+		
+		return fresh.hash;
+	}
+	
+	private static class Fingerprint {
+		Fingerprint(long size, long mtime, String hash) {
+			this.size = size;
+			this.mtime = mtime;
+			this.hash = hash;
+		}
+		
+		final long size;
+		final long mtime;
+		final String hash;
+		
+		boolean matches(long size, long mtime) {
+			return this.size == size && this.mtime == mtime;
+		}
+		
+		static Fingerprint read(Path sidecar) {
+			try {
+				if(Files.notExists(sidecar)) return null;
+				
+				List<String> lines = Files.readAllLines(sidecar, StandardCharsets.UTF_8);
+				if(lines.size() < 3) return null;
+				return new Fingerprint(Long.parseLong(lines.get(0)), Long.parseLong(lines.get(1)), lines.get(2));
+			} catch (IOException | RuntimeException e) {
+				return null; //corrupt or unreadable, just hash the file again
+			}
+		}
+		
+		void write(Path sidecar) {
+			Path temp = null;
+			try {
+				Files.createDirectories(sidecar.getParent());
+				temp = Files.createTempFile(sidecar.getParent(), sidecar.getFileName().toString(), ".tmp");
+				Files.write(temp, (size + "\n" + mtime + "\n" + hash + "\n").getBytes(StandardCharsets.UTF_8));
+				Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				//not a big deal, the file will just get hashed again next time
+				try {
+					if(temp != null) Files.deleteIfExists(temp);
+				} catch (IOException ignored) {}
+			}
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package net.fabricmc.loom.util;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+
+/**
+ * Puts a file somewhere else without storing its bytes twice, when it can: makes a hard link (or a symbolic link) to it,
+ * and falls back to copying it if the filesystem doesn't do that kind of link (or the two paths are on different drives,
+ * or Windows wants special permissions for symlinks).
+ * <p>
+ * Once a link fails, it doesn't keep trying for the rest of the files; keep one of these around per batch of files.
+ * <p>
+ * Links share their contents with the original file, so they're only for files that nobody is going to modify.
+ */
+public class FileLinker {
+	public FileLinker() {
+		this(Mode.HARDLINK);
+	}
+	
+	public FileLinker(Mode mode) {
+		this.mode = mode;
+		this.linksWork = mode != Mode.COPY;
+	}
+	
+	public enum Mode {
+		HARDLINK, SYMLINK, COPY;
+		
+		public static Mode parse(String name) {
+			for(Mode mode : values()) if(mode.name().equalsIgnoreCase(name)) return mode;
+			throw new IllegalArgumentException("Unknown file linking mode '" + name + "', expected 'copy', 'hardlink', or 'symlink'");
+		}
+	}
+	
+	private final Mode mode;
+	private volatile boolean linksWork;
+	private int linked, copied;
+	
+	/**
+	 * Puts {@code source} at {@code dest}, which must not exist yet. Creates parent directories of {@code dest}.
+	 */
+	public void link(Path source, Path dest) throws IOException {
+		Files.createDirectories(dest.getParent());
+		
+		if(linksWork) {
+			try {
+				if(mode == Mode.SYMLINK) Files.createSymbolicLink(dest, source.toAbsolutePath());
+				else Files.createLink(dest, source);
+				synchronized(this) { linked++; }
+				return;
+			} catch (UnsupportedOperationException | FileSystemException e) {
+				if(Files.exists(dest, LinkOption.NOFOLLOW_LINKS) || Files.notExists(source)) throw e; //that's not the filesystem's fault
+				linksWork = false;
+			}
+		}
+		
+		Files.copy(source, dest);
+		synchronized(this) { copied++; }
+	}
+	
+	public synchronized int getLinked() {
+		return linked;
+	}
+	
+	public synchronized int getCopied() {
+		return copied;
+	}
+}
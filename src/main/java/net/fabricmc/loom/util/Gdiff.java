@@ -1,108 +1,157 @@
 package net.fabricmc.loom.util;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-
 //The gdiff algorithm is described at https://www.w3.org/TR/NOTE-gdiff-19970825.html .
 public class Gdiff {
+	private static final int HEADER_LENGTH = 5; //4 byte magic, 1 byte version
 
 	public static byte[] apply(byte[] originalBytes, byte[] patchBytes) {
-		//Stupid buffer-growing microopts.
-		//For the 0-byte originalBytes case, we're creating a class from whole cloth, so the final output size is probably
-		//about as big as the patch itself. When we do have an input, at least in Forge 1.6.4, most binpatches don't make
-		//the class more then 2.2x as big, and the ones that do only grow the array once.
-		//here's a plot of "(size after patch/size before patch)" on forge 1.6: https://i.imgur.com/f41kemy.png
-		//The smallest is client GuiControls (0.7x) and the largest is server WorldProvider (4.1x).
-		int outputBufferSizeEstimate = originalBytes.length == 0 ? patchBytes.length : (int) (originalBytes.length * 2.2);
-		return apply(originalBytes, patchBytes, outputBufferSizeEstimate);
-	}
+		//Patches are applied in two passes over the patch. The first pass only decodes the instructions and adds up
+		//how long the output is going to be, so the second pass can write into one exactly-sized array with arraycopy.
+		//Every instruction is tiny compared to the data it copies, so the extra pass is much cheaper than
+		//growing a ByteArrayOutputStream (and copying it all again in toByteArray).
+		byte[] out = new byte[outputLength(originalBytes, patchBytes)];
 
-	public static byte[] apply(byte[] originalBytes, byte[] patchBytes, int outputBufferSizeEstimate) {
-		ByteArrayInputStream patch = new ByteArrayInputStream(patchBytes);
-		ByteArrayOutputStream out = new ByteArrayOutputStream(outputBufferSizeEstimate);
-
-		int magic = readMagic(patch);
-		if(magic != 0xD1FFD1FF) throw new RuntimeException("Invalid magic: " + Integer.toHexString(magic) + ", expected 0xD1FFD1FF");
-
-		int version = readUbyte(patch);
-		if(version != 4) throw new RuntimeException("Invalid version: " + version + ", expected version 4");
-
-		done: while(true) {
-			int instruction = readUbyte(patch);
-			if(instruction == -1) throw new RuntimeException("Unexpected end-of-patch");
-			if(instruction > 255) throw new RuntimeException("Not a byte: " + instruction);
+		int pos = HEADER_LENGTH, outPos = 0;
+		while(true) {
+			int instruction = patchBytes[pos++] & 0xFF;
+			int offset = 0, length;
 
 			switch(instruction) {
 				//Instruction 0: end.
-				case 0: break done;
+				case 0: return out;
 
 				//Instructions 1..=246: copy [instruction] many bytes from patch to output.
 				//Instructions 247/248: read (ushort/uint), copy that many bytes from patch to output.
-				default:  copyFromPatch(patch, instruction,       out); break; //<- forge patches use this
-				case 247: copyFromPatch(patch, readUshort(patch), out); break; //<- forge patches use this
-				case 248: copyFromPatch(patch, readInt(patch),    out); break;
+				default:  length = instruction;                         break; //<- forge patches use this
+				case 247: length = readUshort(patchBytes, pos); pos += 2; break; //<- forge patches use this
+				case 248: length = readInt(patchBytes, pos);    pos += 4; break;
 
 				//Instructions 249..=255: copy a segment of the original file into the output.
 				//first read "absolute byte offset in original file", then read "length to copy".
 				//Data types vary per-instruction to accomodate different sizes of number.
-				case 249: out.write(originalBytes, readUshort(patch),    readUbyte(patch));  break; //<- forge patches use this
-				case 250: out.write(originalBytes, readUshort(patch),    readUshort(patch)); break;
-				case 251: out.write(originalBytes, readUshort(patch),    readInt(patch));    break;
-				case 252: out.write(originalBytes, readInt(patch),       readUbyte(patch));  break;
-				case 253: out.write(originalBytes, readInt(patch),       readUshort(patch)); break;
-				case 254: out.write(originalBytes, readInt(patch),       readInt(patch));    break;
-				case 255: out.write(originalBytes, readTruncLong(patch), readInt(patch));    break;
+				case 249: offset = readUshort(patchBytes, pos);    length = readUbyte(patchBytes, pos + 2);  pos += 3;  break; //<- forge patches use this
+				case 250: offset = readUshort(patchBytes, pos);    length = readUshort(patchBytes, pos + 2); pos += 4;  break;
+				case 251: offset = readUshort(patchBytes, pos);    length = readInt(patchBytes, pos + 2);    pos += 6;  break;
+				case 252: offset = readInt(patchBytes, pos);       length = readUbyte(patchBytes, pos + 4);  pos += 5;  break;
+				case 253: offset = readInt(patchBytes, pos);       length = readUshort(patchBytes, pos + 4); pos += 6;  break;
+				case 254: offset = readInt(patchBytes, pos);       length = readInt(patchBytes, pos + 4);    pos += 8;  break;
+				case 255: offset = readTruncLong(patchBytes, pos); length = readInt(patchBytes, pos + 8);    pos += 12; break;
+			}
+
+			if(instruction <= 248) {
+				System.arraycopy(patchBytes, pos, out, outPos, length);
+				pos += length;
+			} else {
+				System.arraycopy(originalBytes, offset, out, outPos, length);
 			}
+			outPos += length;
 		}
+	}
 
-		return out.toByteArray();
+	/**
+	 * @deprecated The output length is computed exactly now, so there's nothing to estimate; same as {@link #apply(byte[], byte[])}.
+	 */
+	@Deprecated
+	public static byte[] apply(byte[] originalBytes, byte[] patchBytes, int outputBufferSizeEstimate) {
+		return apply(originalBytes, patchBytes);
 	}
 
-	private static void copyFromPatch(ByteArrayInputStream patch, int howMany, ByteArrayOutputStream out) {
-		byte[] buffer = new byte[howMany];
-		int actuallyRead = patch.read(buffer, 0, buffer.length);
-		if(actuallyRead != buffer.length) throw new RuntimeException("I thought ByteArrayInputStream.read() always filled the buffer");
-		out.write(buffer, 0, buffer.length);
+	/**
+	 * Validates the patch and computes the length of the file it will produce, without copying anything.
+	 * Also checks that every instruction stays in bounds of the patch and the original file, so {@link #apply} doesn't have to.
+	 */
+	public static int outputLength(byte[] originalBytes, byte[] patchBytes) {
+		if(patchBytes.length < HEADER_LENGTH) throw new RuntimeException("Unexpected end of file (patch header is only " + patchBytes.length + " bytes long)");
+
+		int magic = readInt32(patchBytes, 0);
+		if(magic != 0xD1FFD1FF) throw new RuntimeException("Invalid magic: " + Integer.toHexString(magic) + ", expected 0xD1FFD1FF");
+
+		int version = readUbyte(patchBytes, 4);
+		if(version != 4) throw new RuntimeException("Invalid version: " + version + ", expected version 4");
+
+		int pos = HEADER_LENGTH;
+		long outputLength = 0;
+		while(true) {
+			if(pos >= patchBytes.length) throw new RuntimeException("Unexpected end-of-patch");
+			int instruction = patchBytes[pos++] & 0xFF;
+			int operandsLength = operandsLength(instruction);
+			if(pos + operandsLength > patchBytes.length) throw new RuntimeException("Unexpected end of file (operands of instruction " + instruction + ")");
+
+			long offset, length;
+			switch(instruction) {
+				case 0: {
+					if(outputLength > Integer.MAX_VALUE - 8) throw new RuntimeException("Patch output too large: " + outputLength + " bytes");
+					return (int) outputLength;
+				}
+
+				default:  length = instruction;             break;
+				case 247: length = readUshort(patchBytes, pos); break;
+				case 248: length = readInt(patchBytes, pos);    break;
+
+				case 249: offset = readUshort(patchBytes, pos);    length = readUbyte(patchBytes, pos + 2);  checkOriginal(originalBytes, offset, length); break;
+				case 250: offset = readUshort(patchBytes, pos);    length = readUshort(patchBytes, pos + 2); checkOriginal(originalBytes, offset, length); break;
+				case 251: offset = readUshort(patchBytes, pos);    length = readInt(patchBytes, pos + 2);    checkOriginal(originalBytes, offset, length); break;
+				case 252: offset = readInt(patchBytes, pos);       length = readUbyte(patchBytes, pos + 4);  checkOriginal(originalBytes, offset, length); break;
+				case 253: offset = readInt(patchBytes, pos);       length = readUshort(patchBytes, pos + 4); checkOriginal(originalBytes, offset, length); break;
+				case 254: offset = readInt(patchBytes, pos);       length = readInt(patchBytes, pos + 4);    checkOriginal(originalBytes, offset, length); break;
+				case 255: offset = readTruncLong(patchBytes, pos); length = readInt(patchBytes, pos + 8);    checkOriginal(originalBytes, offset, length); break;
+			}
+			pos += operandsLength;
+
+			if(instruction <= 248) {
+				//the data to copy is inline in the patch
+				if(pos + length > patchBytes.length) throw new RuntimeException("Unexpected end of file (copying " + length + " bytes from the patch)");
+				pos += (int) length;
+			}
+
+			outputLength += length;
+		}
+	}
+
+	private static int operandsLength(int instruction) {
+		switch(instruction) {
+			case 247: return 2;
+			case 248: return 4;
+			case 249: return 3;
+			case 250: return 4;
+			case 251: return 6;
+			case 252: return 5;
+			case 253: return 6;
+			case 254: return 8;
+			case 255: return 12;
+			default: return 0;
+		}
 	}
 
-	private static int readUbyte(ByteArrayInputStream in) {
-		return in.read();
+	private static void checkOriginal(byte[] originalBytes, long offset, long length) {
+		if(offset + length > originalBytes.length) throw new RuntimeException("Copy of " + length + " bytes at offset " + offset + " runs off the end of the " + originalBytes.length + "-byte original file");
 	}
 
-	private static int readUshort(ByteArrayInputStream in) {
-		return (int) readBigEndian(in, 2, "ushort");
+	private static int readUbyte(byte[] in, int pos) {
+		return in[pos] & 0xFF;
 	}
 
-	private static int readMagic(ByteArrayInputStream in) {
-		return (int) readBigEndian(in, 4, "magic number");
+	private static int readUshort(byte[] in, int pos) {
+		return ((in[pos] & 0xFF) << 8) | (in[pos + 1] & 0xFF);
+	}
+
+	private static int readInt32(byte[] in, int pos) {
+		return ((in[pos] & 0xFF) << 24) | ((in[pos + 1] & 0xFF) << 16) | ((in[pos + 2] & 0xFF) << 8) | (in[pos + 3] & 0xFF);
 	}
 
 	//"If a number larger than 1^31-1 bytes is needed for a command command that takes only int arguments,
 	//the command must be split into multiple commands.". hehe. png has something similar.
 	//this clause, in standards, is known as the "i bet you're using some shitty language without unsigned types" clause
-	private static int readInt(ByteArrayInputStream in) {
-		int result = (int) readBigEndian(in, 4, "int");
+	private static int readInt(byte[] in, int pos) {
+		int result = readInt32(in, pos);
 		if(result < 0) throw new RuntimeException("int with the high bit set");
 		return result;
 	}
 
 	//We assume the input file fits in a Java array (<2gb), so if we get a `long` we can't use it to index anyway.
-	private static int readTruncLong(ByteArrayInputStream in) {
-		long result = readBigEndian(in, 8, "long");
+	private static int readTruncLong(byte[] in, int pos) {
+		long result = ((long) readInt32(in, pos) << 32) | (readInt32(in, pos + 4) & 0xFFFFFFFFL);
 		if(result < 0 || result > Integer.MAX_VALUE) throw new RuntimeException("long that can't be truncated to an int");
 		return (int) result;
 	}
-
-	private static long readBigEndian(ByteArrayInputStream in, int bytes, String type) {
-		long result = 0;
-		for(int i = 0; i < bytes; i++) {
-			result <<= 8;
-
-			int read = in.read();
-			if(read == -1) throw new RuntimeException("Unexpected end of file (byte " + i + " of " + type + ")");
-
-			result |= read;
-		}
-		return result;
-	}
 }
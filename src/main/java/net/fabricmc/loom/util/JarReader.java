@@ -0,0 +1,179 @@
+package net.fabricmc.loom.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * A read-only zip file reader, the counterpart to {@link JarWriter}. The whole file is read into memory and the central
+ * directory is parsed up front.
+ * <p>
+ * The main reason this exists is {@code JarWriter#copy}: an entry that a provider doesn't need to change can be moved into the
+ * output jar with its already-compressed bytes, CRC, and sizes intact, instead of getting inflated and deflated again.
+ * Entries can also be decompressed with {@link Entry#bytes()}, which is safe to call from any thread.
+ * <p>
+ * Entry names are zip-style (no leading slash). Entries are iterated in central directory order.
+ * Zip64 and encrypted entries aren't supported.
+ */
+public class JarReader implements Iterable<JarReader.Entry> {
+	public JarReader(Path path) throws IOException {
+		this.path = path;
+		this.data = Files.readAllBytes(path);
+
+		try {
+			readCentralDirectory();
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Truncated or corrupt zip file " + path, e);
+		}
+	}
+
+	private final Path path;
+	private final byte[] data;
+	private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+	public Entry get(String name) {
+		if(name.startsWith("/")) name = name.substring(1);
+		return entries.get(name);
+	}
+
+	@Override
+	public Iterator<Entry> iterator() {
+		return Collections.unmodifiableCollection(entries.values()).iterator();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	private void readCentralDirectory() throws IOException {
+		//The end-of-central-directory record is at the end of the file, followed by a variable-length comment.
+		int eocd = -1;
+		for(int i = data.length - 22; i >= Math.max(0, data.length - 22 - 0xFFFF); i--) {
+			if(readInt(i) == 0x06054b50) {
+				eocd = i;
+				break;
+			}
+		}
+		if(eocd == -1) throw new IOException("Couldn't find the end of the central directory in " + path + "; not a zip file?");
+
+		int count = readShort(eocd + 10);
+		long cdOffset = readInt(eocd + 16) & 0xFFFFFFFFL;
+		if(count == 0xFFFF || cdOffset == 0xFFFFFFFFL) throw new IOException("Zip64 files are not supported: " + path);
+
+		int pos = (int) cdOffset;
+		for(int i = 0; i < count; i++) {
+			if(readInt(pos) != 0x02014b50) throw new IOException("Bad central directory header signature at " + pos + " in " + path);
+
+			int flags = readShort(pos + 8);
+			int method = readShort(pos + 10);
+			long crc = readInt(pos + 16) & 0xFFFFFFFFL;
+			long compressedSize = readInt(pos + 20) & 0xFFFFFFFFL;
+			long uncompressedSize = readInt(pos + 24) & 0xFFFFFFFFL;
+			int nameLength = readShort(pos + 28);
+			int extraLength = readShort(pos + 30);
+			int commentLength = readShort(pos + 32);
+			long localHeaderOffset = readInt(pos + 42) & 0xFFFFFFFFL;
+			String name = new String(data, pos + 46, nameLength, StandardCharsets.UTF_8);
+			pos += 46 + nameLength + extraLength + commentLength;
+
+			if((flags & 1) != 0) throw new IOException("Encrypted zip entry " + name + " in " + path);
+			if(compressedSize == 0xFFFFFFFFL || uncompressedSize == 0xFFFFFFFFL || localHeaderOffset == 0xFFFFFFFFL) throw new IOException("Zip64 entries are not supported: " + name + " in " + path);
+
+			//The local header has its own name and extra field lengths, which don't have to match the central directory's
+			int local = (int) localHeaderOffset;
+			if(readInt(local) != 0x04034b50) throw new IOException("Bad local header signature for " + name + " in " + path);
+			int dataOffset = local + 30 + readShort(local + 26) + readShort(local + 28);
+			if(dataOffset + compressedSize > data.length) throw new IOException("Entry " + name + " runs off the end of " + path);
+
+			if(name.startsWith("/")) name = name.substring(1);
+			entries.put(name, new Entry(name, method, crc, (int) compressedSize, (int) uncompressedSize, dataOffset));
+		}
+	}
+
+	private int readShort(int pos) {
+		return (data[pos] & 0xFF) | ((data[pos + 1] & 0xFF) << 8);
+	}
+
+	private int readInt(int pos) {
+		return readShort(pos) | (readShort(pos + 2) << 16);
+	}
+
+	public class Entry {
+		private Entry(String name, int method, long crc, int compressedSize, int uncompressedSize, int dataOffset) {
+			this.name = name;
+			this.method = method;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.uncompressedSize = uncompressedSize;
+			this.dataOffset = dataOffset;
+		}
+
+		public final String name;
+		public final int method;
+		public final long crc;
+		public final int compressedSize;
+		public final int uncompressedSize;
+		private final int dataOffset;
+
+		public boolean isDirectory() {
+			return name.endsWith("/");
+		}
+
+		/**
+		 * The entry's data, exactly as it's stored in the zip (i.e. still compressed, if the method is {@code DEFLATED}).
+		 */
+		public byte[] rawBytes() {
+			return Arrays.copyOfRange(data, dataOffset, dataOffset + compressedSize);
+		}
+
+		/**
+		 * The entry's data, decompressed.
+		 */
+		public byte[] bytes() throws IOException {
+			byte[] out;
+			if(method == ZipEntry.STORED) {
+				out = rawBytes();
+			} else if(method == ZipEntry.DEFLATED) {
+				out = new byte[uncompressedSize];
+				Inflater inflater = new Inflater(true);
+				try {
+					inflater.setInput(data, dataOffset, compressedSize);
+					int read = 0;
+					while(read < out.length) {
+						int n = inflater.inflate(out, read, out.length - read);
+						if(n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) break;
+						read += n;
+					}
+					if(read != out.length) throw new IOException("Entry " + name + " in " + path + " inflated to " + read + " bytes, expected " + out.length);
+				} catch (DataFormatException e) {
+					throw new IOException("Corrupt deflate data in " + name + " in " + path, e);
+				} finally {
+					inflater.end();
+				}
+			} else {
+				throw new IOException("Unsupported compression method " + method + " for " + name + " in " + path);
+			}
+
+			CRC32 check = new CRC32();
+			check.update(out, 0, out.length);
+			if(check.getValue() != crc) throw new IOException("CRC mismatch for " + name + " in " + path);
+
+			return out;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+}
@@ -0,0 +1,321 @@
+package net.fabricmc.loom.util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * A write-only zip file writer, made for the jars the providers create. Compared to the zip filesystem ({@code ZipUtil.createFs}):
+ * <ul>
+ *   <li>Entries are compressed on the {@link WorkerPool} as soon as they're written, and {@code write} is safe to call from any thread.</li>
+ *   <li>The file itself is written in one sequential pass by {@code finish}, instead of rewriting a temporary file.</li>
+ *   <li>Output is deterministic: entries are sorted by name, every timestamp is the same, and parent directory entries are filled in
+ *   automatically. The same inputs always make a byte-for-byte identical jar, no matter the thread scheduling.</li>
+ * </ul>
+ * Entry names are zip-style: forward slashes, no leading slash (one will be removed if it's there, so {@code Path.toString()}s from a zip filesystem are fine).
+ * Writing the same name twice replaces the first entry. Entries from a {@link JarReader} can be copied over without recompressing them.
+ * <p>
+ * Call {@code finish} at the end of the try-with-resources block. The jar is written to a temp file next to the destination
+ * and moved into place when it's complete, so if anything throws before that, {@code close} throws the half-done jar away
+ * and the destination is left alone. (A jar that's missing entries would otherwise look like a cache hit.)
+ * <p>
+ * Zip64 isn't supported; nothing Minecraft-sized needs it.
+ */
+public class JarWriter implements Closeable {
+	public JarWriter(Path dest) {
+		this.dest = dest;
+	}
+
+	private final Path dest;
+	private final Map<String, ForkJoinTask<Entry>> entries = new ConcurrentSkipListMap<>();
+	private boolean finished = false, closed = false;
+
+	//1980-01-01 00:00:00, the earliest date a zip can represent
+	private static final int DOS_TIME = 0;
+	private static final int DOS_DATE = (1 << 5) | 1;
+
+	private static final int FLAG_UTF8 = 1 << 11;
+
+	/**
+	 * Schedules an entry to be compressed and added to the jar.
+	 */
+	public void write(String name, byte[] data) {
+		checkOpen();
+		name = normalize(name);
+		String finalName = name;
+		entries.put(name, WorkerPool.submit(() -> Entry.compress(finalName, data)));
+	}
+
+	/**
+	 * Copies an entry from another jar without decompressing and recompressing it.
+	 */
+	public void copy(JarReader.Entry entry) {
+		copy(entry.name, entry);
+	}
+
+	/**
+	 * Copies an entry from another jar without decompressing and recompressing it, but under a different name.
+	 */
+	public void copy(String name, JarReader.Entry entry) {
+		checkOpen();
+		name = normalize(name);
+		if(entry.method != ZipEntry.STORED && entry.method != ZipEntry.DEFLATED) throw new IllegalArgumentException("Can't copy " + entry.name + ", unsupported compression method " + entry.method);
+		entries.put(name, completed(new Entry(name, entry.method, entry.crc, entry.uncompressedSize, entry.rawBytes())));
+	}
+
+	public boolean has(String name) {
+		return entries.containsKey(normalize(name));
+	}
+
+	/**
+	 * Writes the jar and moves it to the destination. Entries can't be added afterwards.
+	 */
+	public void finish() throws IOException {
+		if(finished || closed) throw new IllegalStateException("JarWriter for " + dest + " was already " + (finished ? "finished" : "closed"));
+		finished = true;
+
+		//Fill in parent directory entries.
+		for(String name : new ArrayList<>(entries.keySet())) {
+			for(int slash = name.indexOf('/'); slash != -1 && slash != name.length() - 1; slash = name.indexOf('/', slash + 1)) {
+				String dir = name.substring(0, slash + 1);
+				if(!entries.containsKey(dir)) entries.put(dir, completed(new Entry(dir, ZipEntry.STORED, 0, 0, new byte[0])));
+			}
+		}
+
+		List<String> names = new ArrayList<>(entries.keySet());
+		names.sort(ENTRY_ORDER);
+		if(names.size() > 0xFFFF) throw new IOException("Too many entries for a non-zip64 zip file (" + names.size() + ") in " + dest);
+
+		Path parent = dest.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		Path tmp = Files.createTempFile(parent, dest.getFileName().toString(), ".tmp");
+		try {
+			writeJar(tmp, names);
+			Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Without a {@code finish}, nothing is written, and entries that are still being compressed are cancelled.
+	 */
+	@Override
+	public void close() {
+		if(closed) return;
+		closed = true;
+
+		if(!finished) for(ForkJoinTask<Entry> task : entries.values()) task.cancel(false);
+	}
+
+	private void writeJar(Path file, List<String> names) throws IOException {
+		try(CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 65536))) {
+			List<Entry> written = new ArrayList<>(names.size());
+			long[] offsets = new long[names.size()];
+
+			//local headers + data
+			for(int i = 0; i < names.size(); i++) {
+				Entry entry;
+				try {
+					entry = WorkerPool.join(entries.get(names.get(i)));
+				} catch (IOException | RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new IOException("Failed to compress " + names.get(i), e);
+				}
+
+				offsets[i] = out.count;
+				checkFits(offsets[i], "offset of " + entry.name);
+
+				writeInt(out, 0x04034b50);
+				writeShort(out, entry.versionNeeded());
+				writeShort(out, FLAG_UTF8);
+				writeShort(out, entry.method);
+				writeShort(out, DOS_TIME);
+				writeShort(out, DOS_DATE);
+				writeInt(out, (int) entry.crc);
+				writeInt(out, entry.compressed.length);
+				writeInt(out, (int) entry.uncompressedSize);
+				writeShort(out, entry.nameBytes.length);
+				writeShort(out, 0); //extra length
+				out.write(entry.nameBytes);
+				out.write(entry.compressed);
+
+				written.add(entry);
+			}
+
+			//central directory
+			long centralDirectoryStart = out.count;
+			for(int i = 0; i < written.size(); i++) {
+				Entry entry = written.get(i);
+
+				writeInt(out, 0x02014b50);
+				writeShort(out, 20); //version made by
+				writeShort(out, entry.versionNeeded());
+				writeShort(out, FLAG_UTF8);
+				writeShort(out, entry.method);
+				writeShort(out, DOS_TIME);
+				writeShort(out, DOS_DATE);
+				writeInt(out, (int) entry.crc);
+				writeInt(out, entry.compressed.length);
+				writeInt(out, (int) entry.uncompressedSize);
+				writeShort(out, entry.nameBytes.length);
+				writeShort(out, 0); //extra length
+				writeShort(out, 0); //comment length
+				writeShort(out, 0); //disk number
+				writeShort(out, 0); //internal attributes
+				writeInt(out, entry.isDirectory() ? 0x10 : 0); //external attributes (MS-DOS directory bit)
+				writeInt(out, (int) offsets[i]);
+				out.write(entry.nameBytes);
+			}
+			long centralDirectoryEnd = out.count;
+			checkFits(centralDirectoryEnd, "size of " + dest);
+
+			//end of central directory
+			writeInt(out, 0x06054b50);
+			writeShort(out, 0); //disk number
+			writeShort(out, 0); //disk with the central directory
+			writeShort(out, written.size());
+			writeShort(out, written.size());
+			writeInt(out, (int) (centralDirectoryEnd - centralDirectoryStart));
+			writeInt(out, (int) centralDirectoryStart);
+			writeShort(out, 0); //comment length
+		}
+	}
+
+	private void checkOpen() {
+		if(finished || closed) throw new IllegalStateException("Can't add entries to " + dest + ", the JarWriter was already " + (finished ? "finished" : "closed"));
+	}
+
+	private static ForkJoinTask<Entry> completed(Entry entry) {
+		ForkJoinTask<Entry> task = ForkJoinTask.adapt(() -> entry);
+		task.complete(entry);
+		return task;
+	}
+
+	private static String normalize(String name) {
+		name = name.replace('\\', '/');
+		if(name.startsWith("/")) name = name.substring(1);
+		if(name.isEmpty()) throw new IllegalArgumentException("Empty zip entry name");
+		return name;
+	}
+
+	//Sorted by name, except the manifest goes first, because JarInputStream only looks for it at the start of the jar.
+	private static final Comparator<String> ENTRY_ORDER = Comparator.<String>comparingInt(name -> {
+		if(name.equals("META-INF/")) return 0;
+		else if(name.equals("META-INF/MANIFEST.MF")) return 1;
+		else return 2;
+	}).thenComparing(Comparator.naturalOrder());
+
+	private void checkFits(long value, String what) throws IOException {
+		if(value > 0xFFFFFFFFL) throw new IOException("The " + what + " is too large for a non-zip64 zip file");
+	}
+
+	private static void writeShort(OutputStream out, int value) throws IOException {
+		out.write(value & 0xFF);
+		out.write((value >>> 8) & 0xFF);
+	}
+
+	private static void writeInt(OutputStream out, int value) throws IOException {
+		writeShort(out, value & 0xFFFF);
+		writeShort(out, (value >>> 16) & 0xFFFF);
+	}
+
+	private static class Entry {
+		Entry(String name, int method, long crc, long uncompressedSize, byte[] compressed) {
+			this.name = name;
+			this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+			this.method = method;
+			this.crc = crc;
+			this.uncompressedSize = uncompressedSize;
+			this.compressed = compressed;
+		}
+
+		final String name;
+		final byte[] nameBytes;
+		final int method;
+		final long crc;
+		final long uncompressedSize;
+		final byte[] compressed;
+
+		static Entry compress(String name, byte[] data) {
+			CRC32 crc = new CRC32();
+			crc.update(data, 0, data.length);
+
+			if(data.length == 0) return new Entry(name, ZipEntry.STORED, crc.getValue(), 0, data);
+
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			try {
+				deflater.setInput(data);
+				deflater.finish();
+
+				byte[] buf = new byte[Math.max(64, data.length + (data.length >>> 4) + 16)];
+				int len = 0;
+				while(!deflater.finished()) {
+					if(len == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+					len += deflater.deflate(buf, len, buf.length - len);
+				}
+
+				//store it if deflating didn't help
+				if(len >= data.length) return new Entry(name, ZipEntry.STORED, crc.getValue(), data.length, data);
+				else return new Entry(name, ZipEntry.DEFLATED, crc.getValue(), data.length, Arrays.copyOf(buf, len));
+			} finally {
+				deflater.end();
+			}
+		}
+
+		boolean isDirectory() {
+			return name.endsWith("/");
+		}
+
+		int versionNeeded() {
+			return method == ZipEntry.DEFLATED ? 20 : 10;
+		}
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+		CountingOutputStream(OutputStream delegate) {
+			this.delegate = delegate;
+		}
+
+		private final OutputStream delegate;
+		long count;
+
+		@Override
+		public void write(int b) throws IOException {
+			delegate.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			delegate.write(b, off, len);
+			count += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			delegate.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			delegate.close();
+		}
+	}
+}
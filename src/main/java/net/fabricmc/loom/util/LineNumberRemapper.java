@@ -31,16 +31,14 @@ import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -102,55 +100,36 @@ public class LineNumberRemapper {
 		return this;
 	}
 
-	public void process(FileSystem srcFs, FileSystem dstFs) throws Exception {
-		Files.walkFileTree(srcFs.getPath("/"), new SimpleFileVisitor<Path>() {
-			@Override
-			public FileVisitResult preVisitDirectory(Path srcDir, BasicFileAttributes attrs) throws IOException {
-				Files.createDirectories(dstFs.getPath(srcDir.toString()));
-				return FileVisitResult.CONTINUE;
-			}
+	public void process(JarReader src, JarWriter dst) throws Exception {
+		for(JarReader.Entry entry : src) {
+			if(entry.isDirectory()) continue;
 			
-			@Override
-			public FileVisitResult visitFile(Path srcPath, BasicFileAttributes attrs) throws IOException {
-				String pathString = srcPath.toString();
-				Path dstPath = dstFs.getPath(pathString);
+			if(entry.name.endsWith(".class")) {
+				//guess the class name from the filename
+				RemapTable table = tablesByInternalName.get(entry.name.substring(0, entry.name.length() - ".class".length()));
 				
-				if(pathString.endsWith(".class")) {
-					RemapTable table = tablesByInternalName.get(
-						//guess the class name from the filename
-						pathString
-							.replace("\\", "/")    //maybe windows does this idk?
-							.substring(1)          //leading slash
-							.replace(".class", "") //funny extension
-					);
+				if(table != null) {
+					//we have a line-number remap table for this class, perform a line remap.
+					ClassReader srcClassReader = new ClassReader(entry.bytes());
+					ClassWriter dstClassWriter = new ClassWriter(0);
 					
-					if(table != null) {
-						//we have a line-number remap table for this class, perform a line remap.
-						try(InputStream srcReader = new BufferedInputStream((Files.newInputStream(srcPath)))) {
-							ClassReader srcClassReader = new ClassReader(srcReader);
-							ClassWriter dstClassWriter = new ClassWriter(0);
-							
-							srcClassReader.accept(new LineNumberVisitor(dstClassWriter, table), 0);
-							
-							Files.write(dstPath, dstClassWriter.toByteArray());
-							return FileVisitResult.CONTINUE;
-						}
-					}
+					srcClassReader.accept(new LineNumberVisitor(dstClassWriter, table), 0);
+					
+					dst.write(entry.name, dstClassWriter.toByteArray());
+					continue;
 				}
-				
-				//file is not a class, or we don't have a table for this class
-				Files.copy(srcPath, dstPath);
-				return FileVisitResult.CONTINUE;
 			}
-		});
+			
+			//file is not a class, or we don't have a table for this class
+			dst.copy(entry);
+		}
 	}
 	
-	public void processDebug(FileSystem sourcesFs, FileSystem processedSourcesFs) throws Exception {
+	public void processDebug(FileSystem sourcesFs, JarWriter processedSources) throws Exception {
 		Files.walkFileTree(sourcesFs.getPath("/"), new SimpleFileVisitor<Path>() {
 			@Override
 			public FileVisitResult visitFile(Path sourcesPath, BasicFileAttributes attrs) throws IOException {
 				String pathString = sourcesPath.toString();
-				Path processedSourcesPath = processedSourcesFs.getPath(pathString);
 				
 				if(pathString.endsWith(".java")) {
 					//Found a java source file. Let's see if we have a remap table for its corresponding class file...
@@ -175,23 +154,23 @@ public class LineNumberRemapper {
 						
 						//Now process it line-by-line.
 						List<String> sources = Files.readAllLines(sourcesPath);
-						List<String> processedSources = new ArrayList<>();
+						StringBuilder processed = new StringBuilder();
 						
 						for(int i = 0; i < sources.size(); i++) {
 							String sourceLine = sources.get(i);
 							
 							Integer mojangsLineNumber = table.dstToSrcUsedMappings.get(i + 1); //line numbers are one-indexed
-							if(mojangsLineNumber == null) processedSources.add(spaces + sourceLine);
-							else processedSources.add(String.format(fmt, mojangsLineNumber) + sourceLine);
+							if(mojangsLineNumber == null) processed.append(spaces);
+							else processed.append(String.format(fmt, mojangsLineNumber));
+							processed.append(sourceLine).append(System.lineSeparator()); //(what Files.write(Path, Iterable) does)
 						}
 						
-						if(processedSourcesPath.getParent() != null) Files.createDirectories(processedSourcesPath.getParent());
-						Files.write(processedSourcesPath, processedSources);
+						processedSources.write(pathString, processed.toString().getBytes(StandardCharsets.UTF_8));
 						return FileVisitResult.CONTINUE;
 					}
 				}
 				
-				Files.copy(sourcesPath, processedSourcesPath);
+				processedSources.write(pathString, Files.readAllBytes(sourcesPath));
 				return FileVisitResult.CONTINUE;
 			}
 		});
@@ -1,33 +1,139 @@
 package net.fabricmc.loom.util;
 
-import com.google.gson.Gson;
-import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import org.jetbrains.annotations.Nullable;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
-//TODO: a bit less crummy (maybe manual gson-wrangling, maybe don't allocate crap for *every* minecraft version *ever* because we're only interested in one)
-@SuppressWarnings("CanBeFinal") //google gson
+/**
+ * Looks up versions in Mojang's version_manifest.json, which lists every Minecraft version ever released.
+ * <p>
+ * We're only ever interested in one of them, so the file is scanned with a streaming json reader that stops at the first
+ * matching id, and nothing is allocated for the other versions. Versions that were looked up are remembered in a little
+ * text file next to the index ({@code <index>.lookups}), so later lookups don't have to open the index at all.
+ */
 public class ManifestIndex {
-	public static ManifestIndex read(Path path) throws IOException {
-		try(BufferedReader reader = Files.newBufferedReader(path)) {
-			ManifestIndex manifestIndex = new Gson().fromJson(reader, ManifestIndex.class);
+	private static final String LOOKUPS_HEADER = "voldeloom version manifest lookups v1";
+	
+	/**
+	 * @return the version with this id (ignoring case), or {@code null} if the index doesn't have it
+	 */
+	public static @Nullable VersionData find(Path path, String version) throws IOException {
+		Path lookupsPath = path.resolveSibling(path.getFileName() + ".lookups");
+		String indexStamp = Files.size(path) + ":" + Files.getLastModifiedTime(path).toMillis();
+		
+		Map<String, VersionData> lookups = readLookups(lookupsPath, indexStamp);
+		VersionData remembered = lookups.get(version.toLowerCase(Locale.ROOT));
+		if(remembered != null) return remembered;
+		
+		VersionData found = scan(path, version);
+		if(found != null && isUsableUrl(found.url)) {
+			lookups.put(found.id.toLowerCase(Locale.ROOT), found);
+			writeLookups(lookupsPath, indexStamp, lookups);
+		}
+		return found;
+	}
+	
+	private static @Nullable VersionData scan(Path path, String version) throws IOException {
+		try(JsonReader reader = new JsonReader(Files.newBufferedReader(path))) {
+			reader.beginObject();
+			while(reader.hasNext()) {
+				if(!reader.nextName().equals("versions")) {
+					reader.skipValue();
+					continue;
+				}
+				
+				reader.beginArray();
+				while(reader.hasNext()) {
+					VersionData data = new VersionData();
+					reader.beginObject();
+					while(reader.hasNext()) {
+						switch(reader.nextName()) {
+							case "id": data.id = reader.nextString(); break;
+							case "url": data.url = reader.nextString(); break;
+							default: reader.skipValue();
+						}
+					}
+					reader.endObject();
+					
+					if(data.id != null && data.id.equalsIgnoreCase(version)) return data; //no need to read the rest
+				}
+				reader.endArray();
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * The lookups file is a header line, a line with the size and modification time of the index the lookups came from,
+	 * then one line per version: the id and the url, separated by a tab.
+	 * @return the remembered versions keyed by lowercased id; empty if there's no lookups file, or it's for an older copy
+	 * of the index. Lines that don't look right are skipped.
+	 */
+	private static Map<String, VersionData> readLookups(Path lookupsPath, String indexStamp) {
+		Map<String, VersionData> lookups = new LinkedHashMap<>();
+		try {
+			if(Files.notExists(lookupsPath)) return lookups;
 			
-			manifestIndex.versionList.forEach(v -> manifestIndex.versions.put(v.id.toLowerCase(Locale.ROOT), v));
+			List<String> lines = Files.readAllLines(lookupsPath, StandardCharsets.UTF_8);
+			if(lines.size() < 2 || !lines.get(0).equals(LOOKUPS_HEADER) || !lines.get(1).equals(indexStamp)) return lookups;
 			
-			return manifestIndex;
+			for(String line : lines.subList(2, lines.size())) {
+				int tab = line.indexOf('\t');
+				if(tab <= 0) continue;
+				
+				VersionData data = new VersionData();
+				data.id = line.substring(0, tab);
+				data.url = line.substring(tab + 1);
+				if(isUsableUrl(data.url)) lookups.put(data.id.toLowerCase(Locale.ROOT), data);
+			}
+		} catch (IOException | RuntimeException e) {
+			lookups.clear(); //just scan the index again
+		}
+		return lookups;
+	}
+	
+	/**
+	 * Rewrites the whole lookups file. It lives in the shared user cache, so it's written to a temp file and moved into
+	 * place; other builds only ever see the old file or the new one.
+	 */
+	private static void writeLookups(Path lookupsPath, String indexStamp, Map<String, VersionData> lookups) {
+		StringBuilder out = new StringBuilder(LOOKUPS_HEADER).append('\n').append(indexStamp).append('\n');
+		lookups.values().forEach(data -> out.append(data.id).append('\t').append(data.url).append('\n'));
+		
+		Path tmp = null;
+		try {
+			tmp = Files.createTempFile(lookupsPath.toAbsolutePath().getParent(), lookupsPath.getFileName().toString(), ".tmp");
+			Files.write(tmp, out.toString().getBytes(StandardCharsets.UTF_8));
+			Files.move(tmp, lookupsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			//it's only a cache
+			try {
+				if(tmp != null) Files.deleteIfExists(tmp);
+			} catch (IOException ignored) {}
 		}
 	}
 	
-	@SerializedName("versions") public List<VersionData> versionList = new ArrayList<>();
-	public transient Map<String, VersionData> versions = new HashMap<>();
+	//Per-version manifests are json files on a web server. Anything else is a mangled line, or a weird index.
+	private static boolean isUsableUrl(@Nullable String url) {
+		if(url == null || url.isEmpty()) return false;
+		try {
+			URL parsed = new URL(url);
+			return !parsed.getHost().isEmpty() && parsed.getPath().endsWith(".json");
+		} catch (MalformedURLException e) {
+			return false;
+		}
+	}
 	
 	public static class VersionData {
 		public String id, url;
@@ -0,0 +1,156 @@
+package net.fabricmc.loom.util;
+
+import org.gradle.api.logging.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a batch of already-configured {@link DownloadSession}s on a few threads of its own, retrying the ones that fail
+ * with an exponential backoff, and logging progress every 10%.
+ * <p>
+ * Downloads are waiting on the network, not the CPU, so this doesn't belong on the {@code WorkerPool}. HttpURLConnection
+ * keeps connections to the same server alive and hands them back out as long as each response is read to the end (which
+ * {@code DownloadSession} does, error responses included), so the threads mostly reuse a handful of connections instead
+ * of opening one per file.
+ * <p>
+ * Nothing in here knows where the files come from; point the sessions at a local server to try it out.
+ */
+public class ParallelDownloads {
+	public ParallelDownloads(Logger log) {
+		this.log = log;
+	}
+	
+	private final Logger log;
+	private int threads = 1;
+	private int maxAttempts = 4;
+	private long retryBackoffMs = 1000;
+	private final List<Download> downloads = new ArrayList<>();
+	
+	public ParallelDownloads threads(int threads) {
+		this.threads = threads;
+		return this;
+	}
+	
+	public ParallelDownloads maxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+		return this;
+	}
+	
+	/**
+	 * How long to wait before the first retry; it doubles for every retry after that.
+	 */
+	public ParallelDownloads retryBackoffMs(long retryBackoffMs) {
+		this.retryBackoffMs = retryBackoffMs;
+		return this;
+	}
+	
+	/**
+	 * @param name what to call this file in log messages
+	 */
+	public ParallelDownloads add(String name, DownloadSession session) {
+		downloads.add(new Download(name, session));
+		return this;
+	}
+	
+	public int size() {
+		return downloads.size();
+	}
+	
+	public boolean isEmpty() {
+		return downloads.isEmpty();
+	}
+	
+	/**
+	 * Downloads everything, and waits for it to finish. If any download still fails after all its attempts, the others
+	 * are finished anyway, then this throws an IOException carrying the first few failures.
+	 */
+	public void downloadAll() throws Exception {
+		Progress progress = new Progress(downloads.size());
+		
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+			Thread thread = new Thread(r, "voldeloom-download");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		List<Throwable> failures = new ArrayList<>();
+		try {
+			List<Future<?>> futures = new ArrayList<>(downloads.size());
+			for(Download download : downloads) {
+				futures.add(executor.submit(() -> {
+					downloadWithRetries(download);
+					progress.step();
+					return null;
+				}));
+			}
+			
+			for(Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					failures.add(e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		
+		if(!failures.isEmpty()) {
+			IOException e = new IOException(failures.size() + " of " + downloads.size() + " files failed to download. Run the task again to retry them.", failures.get(0));
+			for(Throwable t : failures.subList(1, Math.min(failures.size(), 10))) e.addSuppressed(t);
+			throw e;
+		}
+	}
+	
+	private void downloadWithRetries(Download download) throws Exception {
+		for(int attempt = 1; ; attempt++) {
+			try {
+				download.session.download();
+				return;
+			} catch (IOException e) {
+				if(attempt >= maxAttempts) throw new IOException("Failed to download " + download.name + " after " + attempt + " attempts", e);
+				
+				long backoff = retryBackoffMs << (attempt - 1); //1s, 2s, 4s...
+				log.warn("!! Failed to download {} (attempt {}/{}), retrying in {}ms: {}", download.name, attempt, maxAttempts, backoff, e.toString());
+				Thread.sleep(backoff);
+			}
+		}
+	}
+	
+	private static class Download {
+		Download(String name, DownloadSession session) {
+			this.name = name;
+			this.session = session;
+		}
+		
+		final String name;
+		final DownloadSession session;
+	}
+	
+	/**
+	 * Logs every 10%, no matter which thread finished the download that crossed the line.
+	 */
+	private class Progress {
+		Progress(int total) {
+			this.total = total;
+		}
+		
+		private final int total;
+		private int done = 0, nextLogCount = 0, logCount = 0;
+		
+		synchronized void step() {
+			done++;
+			while(done >= nextLogCount && logCount <= 10) {
+				log.lifecycle("\\-> " + logCount * 10 + "%...");
+				logCount++;
+				nextLogCount = logCount * total / 10;
+			}
+		}
+	}
+}
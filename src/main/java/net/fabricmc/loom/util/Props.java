@@ -1,6 +1,8 @@
 package net.fabricmc.loom.util;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.util.Map;
 import java.util.TreeMap;
@@ -25,6 +27,14 @@ public class Props {
 		return this;
 	}
 	
+	/**
+	 * Records the contents of {@code file}, instead of where it is. Use this instead of putting a path, so the
+	 * same file in a different location (another Gradle home, checkout, or CI agent) still gets the same hash.
+	 */
+	public Props putFingerprint(String key, Path file, FileFingerprints fingerprints) throws IOException {
+		return put(key, fingerprints.fingerprint(file));
+	}
+	
 	public Props putAll(Props other) {
 		other.properties.forEach(this::put);
 		return this;
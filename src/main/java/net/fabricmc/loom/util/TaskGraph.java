@@ -0,0 +1,300 @@
+package net.fabricmc.loom.util;
+
+import org.gradle.api.logging.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A little dependency graph of jobs. Each job declares the jobs whose results it reads, and {@code run} starts every
+ * job as soon as everything it depends on is finished, so independent jobs (downloading the assets index, setting up
+ * the client and server jars...) overlap without anyone having to schedule them by hand.
+ * <p>
+ * There are two kinds of jobs:
+ * <ul>
+ *   <li>Worker jobs run on the {@link WorkerPool}, so at most {@code voldeloom.parallelism} of them run at once.
+ *   They must not touch Gradle; anything they need from the project has to be read before the graph runs.</li>
+ *   <li>Configuring jobs run on the thread that called {@code run}, which is the Gradle thread that's configuring the
+ *   project. Anything that resolves a configuration or adds a dependency goes here.</li>
+ * </ul>
+ * A job can only {@code get} the results of jobs it (directly or indirectly) declared as dependencies; anything else
+ * would be a race, so it throws. Jobs can only depend on jobs declared before them, so the graph can't have cycles.
+ * <p>
+ * Jobs can be declared on a {@link Subject}, which keeps track of its own inputs. Then the job depends on the jobs those
+ * inputs come from, plus the previous job declared on the same subject, and nobody has to list the dependencies by hand.
+ * <p>
+ * If a job fails, nothing new is started, the running jobs are waited for, and the first failure is rethrown from {@code run}.
+ * Afterwards, the chain of jobs that determined the total time (the critical path) is logged.
+ */
+public class TaskGraph {
+	public TaskGraph(Logger log) {
+		this.log = log;
+	}
+	
+	private final Logger log;
+	private final List<Node<?>> nodes = new ArrayList<>();
+	private final ThreadLocal<Node<?>> currentNode = new ThreadLocal<>();
+	private final Map<Subject, Node<?>> lastJobBySubject = new IdentityHashMap<>();
+	private boolean ran = false;
+	
+	/**
+	 * Declares a job that runs on the worker pool.
+	 */
+	public <T> Node<T> worker(String name, Callable<T> job, Node<?>... dependencies) {
+		return add(name, false, job, dependencies);
+	}
+	
+	/**
+	 * Declares a job that runs on the configuring thread.
+	 */
+	public <T> Node<T> configuring(String name, Callable<T> job, Node<?>... dependencies) {
+		return add(name, true, job, dependencies);
+	}
+	
+	/**
+	 * Declares a job on {@code subject} that runs on the worker pool.
+	 * @param after jobs this one has to wait for, on top of the subject's inputs (for ordering, not results)
+	 */
+	public <S extends Subject, T> Node<T> worker(String name, S subject, SubjectJob<S, T> job, Node<?>... after) {
+		return add(name, false, subject, job, after);
+	}
+	
+	/**
+	 * Declares a job on {@code subject} that runs on the configuring thread.
+	 * @param after jobs this one has to wait for, on top of the subject's inputs (for ordering, not results)
+	 */
+	public <S extends Subject, T> Node<T> configuring(String name, S subject, SubjectJob<S, T> job, Node<?>... after) {
+		return add(name, true, subject, job, after);
+	}
+	
+	private <S extends Subject, T> Node<T> add(String name, boolean configuringThread, S subject, SubjectJob<S, T> job, Node<?>[] after) {
+		Set<Node<?>> dependencies = new LinkedHashSet<>(subject.takeInputNodes());
+		Node<?> previous = lastJobBySubject.get(subject);
+		if(previous != null) dependencies.add(previous);
+		dependencies.addAll(Arrays.asList(after));
+		
+		Node<T> node = add(name, configuringThread, () -> {
+			subject.applyInputs();
+			return job.run(subject);
+		}, dependencies.toArray(new Node<?>[0]));
+		
+		lastJobBySubject.put(subject, node);
+		return node;
+	}
+	
+	private <T> Node<T> add(String name, boolean configuringThread, Callable<T> job, Node<?>[] dependencies) {
+		if(ran) throw new IllegalStateException("Can't add job '" + name + "', the graph already ran");
+		
+		Node<T> node = new Node<>(name, configuringThread, job, dependencies);
+		nodes.add(node);
+		return node;
+	}
+	
+	public void run() throws Exception {
+		if(ran) throw new IllegalStateException("TaskGraph already ran");
+		ran = true;
+		
+		long graphStart = System.nanoTime();
+		
+		List<Node<?>> waiting = new ArrayList<>(nodes);
+		Deque<Node<?>> readyHere = new ArrayDeque<>();
+		BlockingQueue<Node<?>> finishedOnWorkers = new LinkedBlockingQueue<>();
+		int running = 0;
+		Exception failure = null;
+		
+		while(true) {
+			//start everything that's ready (unless something already broke)
+			if(failure == null) {
+				for(Iterator<Node<?>> iter = waiting.iterator(); iter.hasNext(); ) {
+					Node<?> node = iter.next();
+					if(!node.ready()) continue;
+					iter.remove();
+					
+					if(node.configuringThread) {
+						readyHere.add(node);
+					} else {
+						running++;
+						WorkerPool.submit(() -> {
+							node.execute();
+							finishedOnWorkers.add(node);
+							return null;
+						});
+					}
+				}
+			}
+			
+			if(failure == null && !readyHere.isEmpty()) {
+				//run one configuring-thread job, then go see what it unblocked
+				Node<?> node = readyHere.poll();
+				node.execute();
+				if(node.failure != null) failure = node.failure;
+				continue;
+			}
+			
+			if(running == 0) break;
+			
+			//nothing to do on this thread, so wait for a worker job to finish
+			Node<?> finished = finishedOnWorkers.take();
+			running--;
+			if(finished.failure != null) {
+				if(failure == null) failure = finished.failure;
+				else if(failure != finished.failure) failure.addSuppressed(finished.failure);
+			}
+		}
+		
+		if(failure != null) throw failure;
+		
+		if(!waiting.isEmpty()) throw new IllegalStateException("TaskGraph finished, but " + waiting.size() + " jobs never became ready (first: " + waiting.get(0).name + ")");
+		
+		logCriticalPath((System.nanoTime() - graphStart) / 1_000_000L);
+	}
+	
+	private void logCriticalPath(long wallMs) {
+		if(nodes.isEmpty()) return;
+		
+		//Work backwards from the job that finished last. Each job was waiting on whichever of its dependencies finished last,
+		//so following those is the chain of jobs that the total time actually depended on.
+		Node<?> node = Collections.max(nodes, (a, b) -> Long.compare(a.endNanos, b.endNanos));
+		List<Node<?>> path = new ArrayList<>();
+		while(node != null) {
+			path.add(node);
+			
+			Node<?> gate = null;
+			for(Node<?> dep : node.dependencies) {
+				if(gate == null || dep.endNanos > gate.endNanos) gate = dep;
+			}
+			node = gate;
+		}
+		Collections.reverse(path);
+		
+		long totalJobMs = 0;
+		for(Node<?> n : nodes) totalJobMs += n.durationMs();
+		
+		log.lifecycle("] {} jobs took {}ms of wall-clock time and {}ms in total ({} worker threads). Critical path:", nodes.size(), wallMs, totalJobMs, WorkerPool.parallelism());
+		for(Node<?> n : path) {
+			log.lifecycle("  {} {}ms{}", n.name, n.durationMs(), n.configuringThread ? " (configuring thread)" : "");
+		}
+		
+		if(log.isInfoEnabled()) {
+			log.info("] All jobs, in the order they started:");
+			List<Node<?>> byStart = new ArrayList<>(nodes);
+			byStart.sort((a, b) -> Long.compare(a.startNanos, b.startNanos));
+			for(Node<?> n : byStart) {
+				log.info("  +{}ms {} {}ms", (n.startNanos - byStart.get(0).startNanos) / 1_000_000L, n.name, n.durationMs());
+			}
+		}
+	}
+	
+	/**
+	 * Something that jobs can be declared on, which knows which other jobs' results it reads (providers, mostly).
+	 */
+	public interface Subject {
+		/**
+		 * @return the jobs whose results were asked for since the last call. The job being declared depends on them.
+		 */
+		List<Node<?>> takeInputNodes();
+		
+		/**
+		 * Called on the job's thread right before each job declared on this subject, with the same inputs that
+		 * {@code takeInputNodes} returned when the job was declared. Passes their results along to the subject.
+		 */
+		void applyInputs() throws Exception;
+	}
+	
+	public interface SubjectJob<S, T> {
+		T run(S subject) throws Exception;
+	}
+	
+	public final class Node<T> {
+		private Node(String name, boolean configuringThread, Callable<T> job, Node<?>[] dependencies) {
+			this.name = name;
+			this.configuringThread = configuringThread;
+			this.job = job;
+			this.dependencies = dependencies;
+			
+			for(Node<?> dep : dependencies) {
+				if(dep.graph() != TaskGraph.this) throw new IllegalArgumentException("Job '" + name + "' depends on '" + dep.name + "' from a different graph");
+				ancestors.add(dep);
+				ancestors.addAll(dep.ancestors);
+			}
+		}
+		
+		private final String name;
+		private final boolean configuringThread;
+		private final Callable<T> job;
+		private final Node<?>[] dependencies;
+		private final Set<Node<?>> ancestors = new HashSet<>();
+		
+		//Written by whichever thread runs the job, then handed to the configuring thread through the queue in run(),
+		//or read by dependent jobs that are only started after that.
+		private volatile boolean done = false;
+		private T result;
+		private Exception failure;
+		private long startNanos, endNanos;
+		
+		/**
+		 * The result of the job. Only callable from jobs that depend on this one, or after the graph has run.
+		 */
+		public T get() {
+			Node<?> caller = currentNode.get();
+			if(caller != null && caller != this && !caller.ancestors.contains(this)) {
+				throw new IllegalStateException("Job '" + caller.name + "' reads the result of '" + name + "', but doesn't depend on it");
+			}
+			if(!done) throw new IllegalStateException("Job '" + name + "' hasn't run yet");
+			if(failure != null) throw new IllegalStateException("Job '" + name + "' failed", failure);
+			
+			return result;
+		}
+		
+		private boolean ready() {
+			//a job whose dependency failed is never started
+			for(Node<?> dep : dependencies) if(!dep.done || dep.failure != null) return false;
+			return true;
+		}
+		
+		private void execute() {
+			startNanos = System.nanoTime();
+			
+			//A worker thread that's waiting on something in the pool can pick up another job in the meantime, so put back whatever was here
+			Node<?> outer = currentNode.get();
+			currentNode.set(this);
+			try {
+				result = job.call();
+			} catch (Exception e) {
+				failure = new RuntimeException("Exception in job '" + name + "': " + e.getMessage(), e);
+			} catch (Throwable e) {
+				failure = new RuntimeException("Error in job '" + name + "': " + e.getMessage(), e);
+			} finally {
+				currentNode.set(outer);
+				endNanos = System.nanoTime();
+				done = true;
+			}
+		}
+		
+		private long durationMs() {
+			return (endNanos - startNanos) / 1_000_000L;
+		}
+		
+		private TaskGraph graph() {
+			return TaskGraph.this;
+		}
+		
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package net.fabricmc.loom.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * A shared thread pool for the CPU-bound parts of setting up a workspace (binpatching, remapping, compressing jars...)
+ * <p>
+ * It's a {@code ForkJoinPool}, so a job running on the pool is allowed to submit more jobs and wait on them without
+ * deadlocking the pool; the waiting thread just pitches in and runs queued jobs itself.
+ * <p>
+ * The threads are daemon threads, so the pool never keeps the Gradle daemon alive. The size of the pool defaults to the
+ * number of processors, and can be changed with the {@code voldeloom.parallelism} system property.
+ * ({@code -Dvoldeloom.parallelism=1} is nice for comparing against the old serial behavior, or for debugging.)
+ */
+public class WorkerPool {
+	private static ForkJoinPool pool;
+
+	public static synchronized ForkJoinPool get() {
+		if(pool == null) {
+			int parallelism = Integer.getInteger("voldeloom.parallelism", Runtime.getRuntime().availableProcessors());
+			pool = new ForkJoinPool(Math.max(1, parallelism), p -> {
+				ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+				thread.setName("voldeloom-worker-" + thread.getPoolIndex());
+				thread.setDaemon(true);
+				return thread;
+			}, null, false);
+		}
+		return pool;
+	}
+
+	public static int parallelism() {
+		return get().getParallelism();
+	}
+
+	/**
+	 * Submits one job to the pool. If this is called from a pool thread, the job is forked onto that thread's queue.
+	 */
+	public static <T> ForkJoinTask<T> submit(Callable<T> job) {
+		ForkJoinTask<T> task = ForkJoinTask.adapt(job);
+		ForkJoinPool pool = get();
+		if(ForkJoinTask.getPool() == pool) task.fork();
+		else pool.execute(task);
+		return task;
+	}
+
+	/**
+	 * Submits all jobs to the pool and waits for all of them to finish, returning their results in the same order as the jobs.
+	 * If any job throws an exception, it's rethrown from here (after waiting for the others).
+	 */
+	public static <T> List<T> invokeAll(Collection<? extends Callable<T>> jobs) throws Exception {
+		List<ForkJoinTask<T>> tasks = new ArrayList<>(jobs.size());
+		for(Callable<T> job : jobs) tasks.add(submit(job));
+
+		List<T> results = new ArrayList<>(tasks.size());
+		Exception failure = null;
+		for(ForkJoinTask<T> task : tasks) {
+			try {
+				results.add(join(task));
+			} catch (Exception e) {
+				if(failure == null) failure = e;
+				else failure.addSuppressed(e);
+			}
+		}
+
+		if(failure != null) throw failure;
+		return results;
+	}
+
+	/**
+	 * Waits for the task and returns its result, unwrapping the {@code ExecutionException} the pool wraps failures in.
+	 */
+	public static <T> T join(ForkJoinTask<T> task) throws Exception {
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof Exception) throw (Exception) cause;
+			if(cause instanceof Error) throw (Error) cause;
+			throw e;
+		}
+	}
+}
@@ -16,6 +16,7 @@
 
 package net.fabricmc.loom.yoinked.stitch;
 
+import net.fabricmc.loom.util.JarWriter;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
@@ -28,8 +29,6 @@ import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
-import java.nio.file.StandardOpenOption;
-import java.nio.file.attribute.BasicFileAttributeView;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -48,20 +47,22 @@ import java.util.stream.Collectors;
  * 
  * Mainly I modified it to allow changing the annotatation types JarMerger adds to the jars, but also
  * to simplify it a bit and use regular FileSystems instead of the stitch FileSystemDelegate weird thing
- * because Tbh i have never ran into that issue in practice (close your darned file systems please)
+ * because Tbh i have never ran into that issue in practice (close your darned file systems please).
+ * Output goes through a {@code JarWriter} instead of a zip filesystem.
  */
 public class JarMergerCooler implements AutoCloseable {
-	public JarMergerCooler(FileSystem inputClientFs, FileSystem inputServerFs, FileSystem outputFs) {
+	public JarMergerCooler(FileSystem inputClientFs, FileSystem inputServerFs, JarWriter output) {
 		this.inputClientFs = inputClientFs;
 		this.inputServerFs = inputServerFs;
-		this.outputFs = outputFs;
+		this.output = output;
 		
 		this.entriesClient = new HashMap<>();
 		this.entriesServer = new HashMap<>();
 		this.entriesAll = new TreeSet<>();
 	}
 	
-	private final FileSystem inputClientFs, inputServerFs, outputFs;
+	private final FileSystem inputClientFs, inputServerFs;
+	private final JarWriter output;
 	private final Map<String, Entry> entriesClient, entriesServer;
 	private final Set<String> entriesAll;
 //	private boolean removeSnowmen = false;
@@ -91,7 +92,7 @@ public class JarMergerCooler implements AutoCloseable {
 	public void close() throws IOException {
 		inputClientFs.close();
 		inputServerFs.close();
-		outputFs.close();
+		output.close();
 	}
 	
 	private void readToMap(Map<String, Entry> map, FileSystem input) {
@@ -131,23 +132,8 @@ public class JarMergerCooler implements AutoCloseable {
 	}
 	
 	private void add(Entry entry) throws IOException {
-		Path outPath = outputFs.getPath(entry.path.toString());
-		if (outPath.getParent() != null) {
-			Files.createDirectories(outPath.getParent());
-		}
-		
-		if (entry.data != null) {
-			Files.write(outPath, entry.data, StandardOpenOption.CREATE_NEW);
-		} else {
-			Files.copy(entry.path, outPath);
-		}
-		
-		Files.getFileAttributeView(outPath, BasicFileAttributeView.class)
-			.setTimes(
-				entry.metadata.creationTime(),
-				entry.metadata.lastAccessTime(),
-				entry.metadata.lastModifiedTime()
-			);
+		//(JarWriter gives every entry the same timestamp, so the metadata isn't copied over anymore)
+		output.write(entry.path.toString(), entry.data != null ? entry.data : Files.readAllBytes(entry.path));
 	}
 	
 	public void merge(ClassMergerCooler classMergerCooler) throws IOException {